@@ -1,17 +1,43 @@
 package ca.ubc.cs317.dict.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by Jonatan on 2017-09-09.
+ *
+ * The text of a definition is received one line at a time, so it is kept as a list of chunks (initially one per line)
+ * and only joined when it is first requested; the joined text then replaces the chunks. Appending a line is therefore
+ * constant time, instead of copying the whole text received so far. Text beyond a maximum length is not kept: only
+ * the number of omitted lines is counted, and the complete definition may be requested again if needed. As reading the
+ * text modifies the chunks, all access to the text is synchronized: definitions are shared through the cache.
  */
 public class Definition {
 
+    public static final int DEFAULT_MAX_LENGTH = 1 << 20;
+
     private String word;
     private Database database;
-    private String definition;
+    private List<String> chunks = new ArrayList<>();
+    private String joined;
+    private int length = 0;
+    private int maxLength;
+    private int omittedLines = 0;
 
     public Definition(String word, Database database) {
+        this(word, database, DEFAULT_MAX_LENGTH);
+    }
+
+    /** Creates an empty definition whose text is truncated after a number of characters.
+     *
+     * @param word      The word being defined.
+     * @param database  The database the definition was obtained from.
+     * @param maxLength Maximum number of characters kept; lines appended beyond it are omitted.
+     */
+    public Definition(String word, Database database, int maxLength) {
         this.word = word;
         this.database = database;
+        this.maxLength = maxLength;
     }
 
     public String getWord() {
@@ -22,19 +48,53 @@ public class Definition {
         return database;
     }
 
-    public String getDefinition() {
-        return definition;
+    public synchronized String getDefinition() {
+        if (chunks.isEmpty() && omittedLines == 0)
+            return null;
+        if (joined == null) {
+            StringBuilder text = new StringBuilder(length + 64);
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i > 0) text.append(System.lineSeparator());
+                text.append(chunks.get(i));
+            }
+            // Later lines are appended to a single chunk instead of joining all lines again
+            String body = text.toString();
+            chunks.clear();
+            chunks.add(body);
+            if (omittedLines > 0)
+                text.append(System.lineSeparator()).append("[").append(omittedLines).append(" more lines not shown]");
+            joined = omittedLines > 0 ? text.toString() : body;
+        }
+        return joined;
+    }
+
+    public synchronized void setDefinition(String definition) {
+        chunks.clear();
+        joined = null;
+        length = 0;
+        omittedLines = 0;
+        if (definition != null) {
+            chunks.add(definition);
+            length = definition.length();
+        }
     }
 
-    public void setDefinition(String definition) {
-        this.definition = definition;
+    public synchronized void appendDefinition(String definition) {
+        if (definition == null)
+            return;
+        if (omittedLines > 0 || length + definition.length() > maxLength) {
+            omittedLines++;
+            joined = null;
+            return;
+        }
+        chunks.add(definition);
+        length += definition.length() + (chunks.size() > 1 ? System.lineSeparator().length() : 0);
+        joined = null;
     }
 
-    public void appendDefinition(String definition) {
-        if (this.definition == null)
-            this.definition = definition;
-        else if (definition != null)
-            this.definition += System.lineSeparator() + definition;
+    /** Returns whether lines were omitted because the definition exceeded its maximum length. */
+    public synchronized boolean isTruncated() {
+        return omittedLines > 0;
     }
 
 }
@@ -0,0 +1,70 @@
+package ca.ubc.cs317.dict.model;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares building long definitions one line at a time by concatenating the whole text for each line (as Definition
+ * used to do) with the chunked storage of Definition, for entries of several thousand lines, such as long entries of
+ * Webster's dictionary or the Jargon File. For each size, reports the time to append all lines and obtain the text,
+ * and the memory allocated in the process. Usage:
+ * <pre>
+ *     java -cp Dictionary.jar ca.ubc.cs317.dict.model.DefinitionBenchmark [lines ...]
+ * </pre>
+ */
+public class DefinitionBenchmark {
+
+    private static final String LINE = "     A line of a long dictionary entry, about as long as a typical line.";
+    private static final int REPETITIONS = 5;
+
+    public static void main(String[] args) {
+        int[] sizes = {1000, 5000, 20000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%8s  %14s  %14s  %14s  %14s%n", "lines", "concat (ms)", "concat (MB)", "chunked (ms)", "chunked (MB)");
+        for (int lines : sizes) {
+            // Warm up both implementations before measuring
+            concatenate(lines);
+            chunked(lines);
+            long[] concat = measure(() -> concatenate(lines));
+            long[] chunks = measure(() -> chunked(lines));
+            System.out.printf("%8d  %14.2f  %14.1f  %14.2f  %14.1f%n", lines,
+                    concat[0] / 1e6, concat[1] / 1048576.0, chunks[0] / 1e6, chunks[1] / 1048576.0);
+        }
+    }
+
+    /** The former implementation: each line copies the whole text received so far. */
+    private static String concatenate(int lines) {
+        String definition = null;
+        for (int i = 0; i < lines; i++) {
+            if (definition == null)
+                definition = LINE;
+            else
+                definition += System.lineSeparator() + LINE;
+        }
+        return definition;
+    }
+
+    private static String chunked(int lines) {
+        Definition definition = new Definition("word", null, Integer.MAX_VALUE);
+        for (int i = 0; i < lines; i++)
+            definition.appendDefinition(LINE);
+        return definition.getDefinition();
+    }
+
+    /** Returns the average time (in nanoseconds) and memory allocated (in bytes) by a task. */
+    private static long[] measure(Runnable task) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < REPETITIONS; i++)
+            task.run();
+        long time = (System.nanoTime() - start) / REPETITIONS;
+        long allocated = (threads.getThreadAllocatedBytes(thread) - allocatedBefore) / REPETITIONS;
+        return new long[]{time, allocated};
+    }
+}
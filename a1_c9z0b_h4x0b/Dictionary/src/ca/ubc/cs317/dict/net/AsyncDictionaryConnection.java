@@ -0,0 +1,428 @@
+package ca.ubc.cs317.dict.net;
+
+import ca.ubc.cs317.dict.exception.DictConnectionException;
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+
+import ca.ubc.cs317.dict.util.DictStringParser;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A connection with a DICT server whose requests don't block the calling thread: each request returns a
+ * CompletableFuture that is completed when its reply is received. The connection uses a non-blocking SocketChannel
+ * served by a DictionaryEventLoop, so a few threads may hold many connections, each with many outstanding requests.
+ *
+ * Requests are pipelined: each command is written as soon as it is submitted, and replies, which the server sends in
+ * the same order, are matched to the pending requests in order. Replies are read with a ResponseReader as data
+ * arrives, and parsed line by line by a state machine driven by the type of each status, as in DictionaryConnection.
+ *
+ * A request fails with a TimeoutException if its reply is not received within the timeout of the connection, and may
+ * be cancelled with the cancel() method of its future. Either way, the reply of the server, if it arrives, is read and
+ * discarded, so that later replies are still matched to their requests; a cancelled request that was not yet sent is
+ * not sent at all. Futures are completed by the threads of the event loop, so actions chained to them should not block
+ * (or should use the async variants of CompletableFuture methods).
+ */
+public class AsyncDictionaryConnection {
+
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    private final DictionaryEventLoop loop;
+    private final DictionaryEventLoop.Worker worker;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    // Only accessed by the thread of the worker
+    private SocketChannel channel;
+    private SelectionKey key;
+    private final ResponseReader input = new ResponseReader();
+    private final Deque<ByteBuffer> output = new ArrayDeque<>();
+    private final Deque<Request<?>> pending = new ArrayDeque<>();
+    private boolean closed = false;
+
+    private AsyncDictionaryConnection(DictionaryEventLoop loop) {
+        this.loop = loop;
+        this.worker = loop.nextWorker();
+    }
+
+    /** Establishes a new connection with a DICT server, and handles its initial welcome message. The host name is
+     * resolved by the calling thread.
+     *
+     * @param loop The event loop serving the connection.
+     * @param host Name of the host where the DICT server is running
+     * @param port Port number used by the DICT server
+     * @return A future completed with the connection once the server sent its welcome message, or with a
+     * DictConnectionException if the connection can't be established or the message doesn't match its expected value.
+     */
+    public static CompletableFuture<AsyncDictionaryConnection> connect(DictionaryEventLoop loop, String host, int port) {
+        AsyncDictionaryConnection connection = new AsyncDictionaryConnection(loop);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        Welcome welcome = connection.new Welcome();
+        if (address.isUnresolved()) {
+            welcome.future.completeExceptionally(new DictConnectionException("Unknown host: " + host));
+            return welcome.future;
+        }
+        // A connection that could not be established is not used further
+        welcome.future.whenComplete((result, e) -> {
+            if (e != null) connection.close();
+        });
+        connection.submit(welcome, () -> connection.open(address, welcome));
+        return welcome.future;
+    }
+
+    /** Establishes a new connection with a DICT server on the default DICT port number.
+     *
+     * @see #connect(DictionaryEventLoop, String, int)
+     */
+    public static CompletableFuture<AsyncDictionaryConnection> connect(DictionaryEventLoop loop, String host) {
+        return connect(loop, host, DictionaryConnection.DEFAULT_PORT);
+    }
+
+    /** Changes the time each later request may wait for its reply.
+     *
+     * @param timeout Timeout in milliseconds, or 0 for no timeout.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /** Requests all definitions for a specific word.
+     *
+     * @param word The word whose definition is to be retrieved.
+     * @param database The database to be used to retrieve the definition (including the special databases '*' and
+     *                 '!').
+     * @return A future completed with all definitions returned by the server, or with a DictConnectionException if the
+     * connection was interrupted or the messages don't match their expected value.
+     */
+    public CompletableFuture<Collection<Definition>> getDefinitionsAsync(String word, Database database) {
+        DefineRequest request = new DefineRequest(word, database);
+        return submit(request, () -> send(request));
+    }
+
+    /** Requests a list of matches for a specific word pattern.
+     *
+     * @param word     The word whose definition is to be retrieved.
+     * @param strategy The strategy to be used to retrieve the list of matches (e.g., prefix, exact).
+     * @param database The database to be used to retrieve the definition (including the special databases '*' and
+     *                 '!').
+     * @return A future completed with the set of word matches returned by the server, or with a
+     * DictConnectionException if the connection was interrupted or the messages don't match their expected value.
+     */
+    public CompletableFuture<Set<String>> getMatchListAsync(String word, MatchingStrategy strategy, Database database) {
+        MatchRequest request = new MatchRequest(word, strategy, database);
+        return submit(request, () -> send(request));
+    }
+
+    /** Sends the final QUIT message once the replies to earlier requests were received, and then closes the connection.
+     * Requests submitted afterwards fail.
+     */
+    public void close() {
+        Quit quit = new Quit();
+        quit.future.whenComplete((result, e) -> {
+            try {
+                worker.execute(() -> fail(new DictConnectionException("Connection closed")));
+            } catch (RejectedExecutionException ex) {
+                // The event loop already closed the connection
+            }
+        });
+        submit(quit, () -> send(quit));
+    }
+
+    /** Passes a task sending a request to the thread of the connection, and starts the timeout of the request. */
+    private <T> CompletableFuture<T> submit(Request<T> request, Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            request.future.completeExceptionally(new DictConnectionException("Event loop closed"));
+            return request.future;
+        }
+        long timeout = this.timeout;
+        if (timeout > 0) {
+            // The timer thread only hands the timeout over, so that futures are always completed by the worker
+            TimeoutException timedOut = new TimeoutException("No reply to " + request + " after " + timeout + " ms");
+            ScheduledFuture<?> timer = loop.schedule(() -> {
+                try {
+                    worker.execute(() -> request.future.completeExceptionally(timedOut));
+                } catch (RejectedExecutionException e) {
+                    // The event loop was closed, and failed the pending requests
+                }
+            }, timeout);
+            request.future.whenComplete((result, e) -> timer.cancel(false));
+        }
+        return request.future;
+    }
+
+    private void open(InetSocketAddress address, Welcome welcome) {
+        pending.add(welcome);
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(address);
+            key = channel.register(worker.getSelector(), connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        } catch (IOException e) {
+            fail(new DictConnectionException(e));
+        }
+    }
+
+    private void send(Request<?> request) {
+        if (closed) {
+            request.future.completeExceptionally(new DictConnectionException("Connection closed"));
+            return;
+        }
+        if (request.future.isDone()) return; // Cancelled or timed out before it was sent
+        output.add(StandardCharsets.UTF_8.encode(request.line + "\r\n"));
+        pending.add(request);
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        if (key == null || !key.isValid() || channel.isConnectionPending()) return;
+        key.interestOps(output.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /** Performs the operations the channel is ready for. Called by the thread of the worker. */
+    void handle(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                updateInterest();
+            }
+            if (key.isValid() && key.isWritable()) {
+                while (!output.isEmpty()) {
+                    ByteBuffer buffer = output.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) break;
+                    output.poll();
+                }
+                updateInterest();
+            }
+            if (key.isValid() && key.isReadable()) {
+                int count = input.read(channel);
+                while (input.nextBufferedLine()) {
+                    Request<?> request = pending.peek();
+                    if (request == null)
+                        throw new DictConnectionException("Unexpected reply: " + input.getLine());
+                    if (request.lineReceived(input))
+                        pending.poll();
+                }
+                if (count < 0)
+                    throw new DictConnectionException("Connection closed by server");
+            }
+        } catch (IOException e) {
+            fail(new DictConnectionException(e));
+        } catch (DictConnectionException e) {
+            fail(e);
+        }
+    }
+
+    /** Closes the channel and fails all pending requests. Called by the thread of the worker. */
+    void fail(DictConnectionException cause) {
+        closed = true;
+        if (key != null) key.cancel();
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            // The connection is closed anyway
+        }
+        output.clear();
+        Request<?> request;
+        while ((request = pending.poll()) != null)
+            request.future.completeExceptionally(cause);
+    }
+
+    /** A command sent to the server, and the state of its reply while it is being received. The reply is read one
+     * line at a time: a preliminary reply (1xx) is handled, along with the text that follows it, until a completion
+     * reply (2xx) or a negative reply (4xx, 5xx) ends the reply and determines the result of the request.
+     */
+    private abstract static class Request<T> {
+        private final String line;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        // The preliminary reply whose text is being received, if any
+        private Status text;
+
+        private Request(String line) {
+            this.line = line;
+        }
+
+        /** Handles the current line of the reader.
+         *
+         * @return true if the line completed the reply.
+         * @throws DictConnectionException If the line doesn't match its expected value.
+         */
+        private boolean lineReceived(ResponseReader input) throws DictConnectionException {
+            if (text != null) {
+                if (input.isTerminator()) {
+                    textReceived(text);
+                    text = null;
+                } else {
+                    textLine(text, input);
+                }
+                return false;
+            }
+            Status status = Status.parseStatus(input);
+            switch (status.getStatusType()) {
+                case Status.PRELIMINARY_REPLY:
+                    preliminary(status);
+                    if (status.isFollowedByText()) text = status;
+                    return false;
+                case Status.COMPLETION_REPLY:
+                    future.complete(completed(status));
+                    return true;
+                case Status.TRANSIENT_NEGATIVE_REPLY:
+                case Status.PERMANENT_NEGATIVE_REPLY:
+                    try {
+                        future.complete(rejected(status));
+                    } catch (DictConnectionException e) {
+                        future.completeExceptionally(e);
+                    }
+                    return true;
+                default:
+                    throw DictionaryConnection.unexpected(status);
+            }
+        }
+
+        /** Handles a preliminary reply, before the text that follows it, if any. */
+        protected void preliminary(Status status) throws DictConnectionException {
+        }
+
+        /** Handles a line of the text following a preliminary reply. By default, the text is skipped. */
+        protected void textLine(Status status, ResponseReader input) throws DictConnectionException {
+        }
+
+        /** Called once the text following a preliminary reply was received. */
+        protected void textReceived(Status status) {
+        }
+
+        /** Returns the result of the request once a completion reply is received. */
+        protected abstract T completed(Status status) throws DictConnectionException;
+
+        /** Returns the result of the request when a negative reply is received. By default, the reply is unexpected. */
+        protected T rejected(Status status) throws DictConnectionException {
+            throw DictionaryConnection.unexpected(status);
+        }
+
+        @Override
+        public String toString() {
+            return line;
+        }
+    }
+
+    private class Welcome extends Request<AsyncDictionaryConnection> {
+        private Welcome() {
+            super("connection");
+        }
+
+        @Override
+        protected AsyncDictionaryConnection completed(Status status) throws DictConnectionException {
+            if (status.getStatusCode() != 220) throw DictionaryConnection.unexpected(status);
+            return AsyncDictionaryConnection.this;
+        }
+    }
+
+    private static class Quit extends Request<Void> {
+        private Quit() {
+            super("QUIT");
+        }
+
+        @Override
+        protected Void completed(Status status) {
+            return null;
+        }
+    }
+
+    private static class DefineRequest extends Request<Collection<Definition>> {
+        private final String word;
+        private final Collection<Definition> definitions = new ArrayList<>();
+        private Definition definition;
+
+        private DefineRequest(String word, Database database) {
+            super("DEFINE " + DictionaryConnection.quote(database.getName()) + " " + DictionaryConnection.quote(word));
+            this.word = word;
+        }
+
+        @Override
+        protected void preliminary(Status status) throws DictConnectionException {
+            if (status.getStatusCode() != 151) return;
+            // 151 "word" database "database description"
+            String[] atoms = DictStringParser.splitAtoms(status.getDetails());
+            if (atoms.length < 2) throw DictionaryConnection.unexpected(status);
+            definition = new Definition(word, new Database(atoms[1], atoms.length > 2 ? atoms[2] : atoms[1]));
+        }
+
+        @Override
+        protected void textLine(Status status, ResponseReader input) {
+            if (definition != null) definition.appendDefinition(input.getText());
+        }
+
+        @Override
+        protected void textReceived(Status status) {
+            if (definition != null) definitions.add(definition);
+            definition = null;
+        }
+
+        @Override
+        protected Collection<Definition> completed(Status status) {
+            return definitions;
+        }
+
+        @Override
+        protected Collection<Definition> rejected(Status status) throws DictConnectionException {
+            switch (status.getStatusCode()) {
+                case 550: // Invalid database
+                case 551: // Invalid strategy
+                case 552: // No match
+                case 501: // Syntax error
+                    return definitions;
+                default:
+                    throw DictionaryConnection.unexpected(status);
+            }
+        }
+    }
+
+    private static class MatchRequest extends Request<Set<String>> {
+        private final Set<String> matches = new LinkedHashSet<>();
+
+        private MatchRequest(String word, MatchingStrategy strategy, Database database) {
+            super("MATCH " + DictionaryConnection.quote(database.getName()) + " "
+                    + DictionaryConnection.quote(strategy.getName()) + " " + DictionaryConnection.quote(word));
+        }
+
+        @Override
+        protected void textLine(Status status, ResponseReader input) {
+            // database "word"
+            if (status.getStatusCode() != 152) return;
+            String match = input.getAtom(1);
+            if (match != null) matches.add(match);
+        }
+
+        @Override
+        protected Set<String> completed(Status status) {
+            return matches;
+        }
+
+        @Override
+        protected Set<String> rejected(Status status) throws DictConnectionException {
+            switch (status.getStatusCode()) {
+                case 550:
+                case 551:
+                case 552:
+                case 501:
+                    return matches;
+                default:
+                    throw DictionaryConnection.unexpected(status);
+            }
+        }
+    }
+}
@@ -5,23 +5,42 @@ import ca.ubc.cs317.dict.model.Database;
 import ca.ubc.cs317.dict.model.Definition;
 import ca.ubc.cs317.dict.model.MatchingStrategy;
 
+import ca.ubc.cs317.dict.util.DictStringParser;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Created by Jonatan on 2017-09-09.
+ *
+ * Commands may be pipelined (RFC 2229, section 2.2): several commands are written back-to-back, and their replies,
+ * which the server sends in the same order, are matched to them through a queue of pending commands. Requests made
+ * of several commands (e.g., retrieving both the databases and the strategies, or the definitions of several words)
+ * therefore take a single round trip instead of one per command. At most PIPELINE_DEPTH commands are written ahead
+ * of their replies, so that neither side blocks writing while the other is not reading.
+ *
+ * Replies are read with a ResponseReader, which parses status codes and text lines from the bytes received, so that
+ * long replies (e.g., tens of thousands of matches) only create the strings that are kept. Lines are sent and received
+ * in UTF-8 and end with CRLF, as required by RFC 2229.
  */
 public class DictionaryConnection {
 
-    private static final int DEFAULT_PORT = 2628;
+    public static final int DEFAULT_PORT = 2628;
+    private static final int HEALTH_CHECK_TIMEOUT = 5000;
+    private static final int PIPELINE_DEPTH = 16;
 
     private Socket socket;
-    private BufferedReader input;
+    private ResponseReader input;
     private PrintWriter output;
 
-    private Map<String, Database> databaseMap = new LinkedHashMap<String, Database>();
+    private final Map<String, Database> databaseMap;
+
+    // Whether the server sent fewer matches in the last MATCH reply than the number it announced
+    private boolean lastMatchTruncated = false;
 
     /** Establishes a new connection with a DICT server using an explicit host and port number, and handles initial
      * welcome messages.
@@ -32,20 +51,33 @@ public class DictionaryConnection {
      * don't match their expected value.
      */
     public DictionaryConnection(String host, int port) throws DictConnectionException {
-       
+        this(host, port, new LinkedHashMap<String, Database>());
+    }
+
+    /** Establishes a new connection with a DICT server that shares its map of databases with other connections (e.g.,
+     * in a DictionaryConnectionPool), so that the list of databases is only retrieved by one of them.
+     *
+     * @param host Name of the host where the DICT server is running
+     * @param port Port number used by the DICT server
+     * @param databaseMap Map from database name to Database object, shared by all connections with the same server
+     * @throws DictConnectionException If the host does not exist, the connection can't be established, or the messages
+     * don't match their expected value.
+     */
+    DictionaryConnection(String host, int port, Map<String, Database> databaseMap) throws DictConnectionException {
+
+        this.databaseMap = databaseMap;
         try {
             this.socket = new Socket(host, port);
-            this.output = new PrintWriter(this.socket.getOutputStream());
-            this.input = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
-            String welcomeMsg = this.input.readLine();
-            String[] welcomeMsgArr = welcomeMsg.split(" ");
-            if (!welcomeMsgArr[0].equals("220")) {
+            this.output = new PrintWriter(new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8));
+            this.input = new ResponseReader(this.socket.getInputStream());
+            Status welcome = Status.readStatus(this.input);
+            if (welcome.getStatusCode() != 220) {
                 this.close();
+                throw unexpected(welcome);
             }
         } catch (IOException e) {
-            System.out.println("error");
-            throw new DictConnectionException("Dict Connection Error");
-        } 
+            throw new DictConnectionException("Dict Connection Error", e);
+        }
 
     }
 
@@ -66,18 +98,345 @@ public class DictionaryConnection {
      */
     public synchronized void close() {
         try {
-            this.output.println("QUIT");
+            this.socket.setSoTimeout(HEALTH_CHECK_TIMEOUT);
+            send("QUIT");
             this.output.flush();
-            String firstLine;
-            while(!(firstLine = this.input.readLine()).split(" ")[0].equals("221")){
+            while (this.input.nextLine() && this.input.getStatusCode() != 221) {
                 //keep skipping until found correct status code
             }
-            System.out.println(firstLine);
-            this.input.close();
+        } catch (IOException e) {
+            // The server may already have closed the connection; it is closed on this end below
+        } finally {
+            closeQuietly(this.input);
             this.output.close();
-            this.socket.close();
-        } catch(IOException e){
-                e.printStackTrace();
+            closeQuietly(this.socket);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing else can be done with it
+        }
+    }
+
+    /** Checks whether the server still responds on this connection, by sending a STATUS command and waiting (for a
+     * limited time) for its reply. Used before reusing a connection that was idle for a while, since servers close
+     * idle connections.
+     *
+     * @return true if the server replied with a status, false if the connection is closed or the server didn't reply.
+     */
+    public synchronized boolean isHealthy() {
+        if (this.socket.isClosed()) return false;
+        try {
+            this.socket.setSoTimeout(HEALTH_CHECK_TIMEOUT);
+            try {
+                send("STATUS");
+                this.output.flush();
+                if (this.output.checkError()) return false;
+                // Skip what is left of earlier replies until the reply to STATUS
+                while (this.input.nextLine()) {
+                    int status = this.input.getStatusCode();
+                    if (status == 210) return true;
+                    if (status >= 400) return false;
+                }
+                return false;
+            } finally {
+                this.socket.setSoTimeout(0);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** A command sent to the server, and the code that reads its reply. The reply is read as a state machine driven by
+     * the type of each status line: a preliminary reply (1xx) is handled, along with the text that follows it, and is
+     * followed by another status line, until a completion reply (2xx) or a negative reply (4xx, 5xx) ends the reply
+     * and determines the result of the command.
+     */
+    private abstract class Command<T> {
+        private final String line;
+        T result;
+
+        private Command(String line) {
+            this.line = line;
+        }
+
+        /** Handles a preliminary reply, including the text response that follows it, if any. By default, the text is
+         * skipped.
+         */
+        protected void preliminary(Status status) throws DictConnectionException {
+            if (status.isFollowedByText())
+                while (nextTextLine()) ;
+        }
+
+        /** Returns the result of the command once a completion reply is received. */
+        protected abstract T completed(Status status) throws DictConnectionException;
+
+        /** Returns the result of the command when a negative reply is received. By default, the reply is unexpected. */
+        protected T rejected(Status status) throws DictConnectionException {
+            throw unexpected(status);
+        }
+
+        /** Called as soon as the reply was read, before the replies to later commands. */
+        protected void replyReceived(T result) {
+        }
+
+        private void receive() throws DictConnectionException {
+            Status status = Status.readStatus(input);
+            while (status.getStatusType() == Status.PRELIMINARY_REPLY) {
+                preliminary(status);
+                status = Status.readStatus(input);
+            }
+            if (status.getStatusType() == Status.COMPLETION_REPLY)
+                result = completed(status);
+            else if (status.isNegativeReply())
+                result = rejected(status);
+            else
+                throw unexpected(status);
+            replyReceived(result);
+        }
+    }
+
+    /** Sends a list of commands, pipelined, and reads their replies in order. The result of each command is then
+     * available in its result field.
+     *
+     * @param commands The commands to be sent.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    private void execute(List<? extends Command<?>> commands) throws DictConnectionException {
+        Deque<Command<?>> pending = new ArrayDeque<>();
+        Iterator<? extends Command<?>> next = commands.iterator();
+        while (next.hasNext() || !pending.isEmpty()) {
+            while (next.hasNext() && pending.size() < PIPELINE_DEPTH) {
+                Command<?> command = next.next();
+                send(command.line);
+                pending.add(command);
+            }
+            this.output.flush();
+            if (this.output.checkError())
+                throw new DictConnectionException("Connection closed by server");
+            pending.poll().receive();
+        }
+    }
+
+    private <T> T execute(Command<T> command) throws DictConnectionException {
+        execute(Collections.singletonList(command));
+        return command.result;
+    }
+
+    private void send(String line) {
+        this.output.print(line);
+        this.output.print("\r\n");
+    }
+
+    /** Reads the next line of a text response into the reader, where it may be obtained with getText() or getAtom().
+     *
+     * @return false if the line is the line containing a single period that ends the text.
+     * @throws DictConnectionException If the connection was closed before the end of the text.
+     */
+    private boolean nextTextLine() throws DictConnectionException {
+        try {
+            if (!this.input.nextLine())
+                throw new DictConnectionException("Connection closed by server");
+        } catch (IOException e) {
+            throw new DictConnectionException(e);
+        }
+        return !this.input.isTerminator();
+    }
+
+    static DictConnectionException unexpected(Status status) {
+        return new DictConnectionException("Unexpected reply: " + status.getStatusCode() + " " + status.getDetails());
+    }
+
+    /** Quotes a word or database name if it contains characters that would split it into several atoms. */
+    static String quote(String atom) {
+        if (!atom.isEmpty() && !atom.matches(".*[\\s\"'\\\\].*")) return atom;
+        return "\"" + atom.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private class DefineCommand extends Command<Collection<Definition>> {
+        private final String word;
+        private final Consumer<Definition> definitionConsumer;
+        private final BiConsumer<String, Collection<Definition>> wordConsumer;
+        private int maxLength = Definition.DEFAULT_MAX_LENGTH;
+        private final Collection<Definition> definitions = new ArrayList<>();
+
+        private DefineCommand(String word, Database database, Consumer<Definition> definitionConsumer,
+                              BiConsumer<String, Collection<Definition>> wordConsumer) {
+            super("DEFINE " + quote(database.getName()) + " " + quote(word));
+            this.word = word;
+            this.definitionConsumer = definitionConsumer;
+            this.wordConsumer = wordConsumer;
+        }
+
+        @Override
+        protected void preliminary(Status status) throws DictConnectionException {
+            switch (status.getStatusCode()) {
+                case 150: // n definitions retrieved
+                    break;
+                case 151: // "word" database "database description"
+                    String[] atoms = DictStringParser.splitAtoms(status.getDetails());
+                    if (atoms.length < 2) throw unexpected(status);
+                    Database database;
+                    synchronized (databaseMap) {
+                        database = databaseMap.get(atoms[1]);
+                    }
+                    if (database == null)
+                        database = new Database(atoms[1], atoms.length > 2 ? atoms[2] : atoms[1]);
+                    Definition definition = new Definition(word, database, maxLength);
+                    while (nextTextLine())
+                        definition.appendDefinition(input.getText());
+                    definitions.add(definition);
+                    // Each definition is passed on as soon as its text is complete, before the next one is read
+                    if (definitionConsumer != null) definitionConsumer.accept(definition);
+                    break;
+                default:
+                    super.preliminary(status);
+            }
+        }
+
+        @Override
+        protected Collection<Definition> completed(Status status) {
+            return definitions;
+        }
+
+        @Override
+        protected Collection<Definition> rejected(Status status) throws DictConnectionException {
+            switch (status.getStatusCode()) {
+                case 550: // Invalid database
+                case 551: // Invalid strategy
+                case 552: // No match
+                case 501: // Syntax error
+                    return definitions;
+                default:
+                    throw unexpected(status);
+            }
+        }
+
+        @Override
+        protected void replyReceived(Collection<Definition> definitions) {
+            if (wordConsumer != null) wordConsumer.accept(word, definitions);
+        }
+    }
+
+    private class MatchCommand extends Command<Set<String>> {
+        private final Set<String> matches = new LinkedHashSet<>();
+
+        private MatchCommand(String word, MatchingStrategy strategy, Database database) {
+            super("MATCH " + quote(database.getName()) + " " + quote(strategy.getName()) + " " + quote(word));
+        }
+
+        @Override
+        protected void preliminary(Status status) throws DictConnectionException {
+            if (status.getStatusCode() != 152) {
+                super.preliminary(status);
+                return;
+            }
+            // database "word"
+            int lines = 0;
+            while (nextTextLine()) {
+                lines++;
+                String match = input.getAtom(1);
+                if (match != null) matches.add(match);
+            }
+            // 152 n matches found
+            try {
+                lastMatchTruncated = Integer.parseInt(status.getDetails().split(" ", 2)[0]) > lines;
+            } catch (NumberFormatException e) {
+                lastMatchTruncated = true;
+            }
+        }
+
+        @Override
+        protected Set<String> completed(Status status) {
+            return matches;
+        }
+
+        @Override
+        protected Set<String> rejected(Status status) throws DictConnectionException {
+            switch (status.getStatusCode()) {
+                case 550:
+                case 551:
+                case 552:
+                case 501:
+                    return matches;
+                default:
+                    throw unexpected(status);
+            }
+        }
+    }
+
+    private class ShowDatabasesCommand extends Command<Collection<Database>> {
+        private final Collection<Database> databases = new ArrayList<>();
+
+        private ShowDatabasesCommand() {
+            super("SHOW DB");
+        }
+
+        @Override
+        protected void preliminary(Status status) throws DictConnectionException {
+            if (status.getStatusCode() != 110) {
+                super.preliminary(status);
+                return;
+            }
+            while (nextTextLine()) {
+                String name = input.getAtom(0);
+                if (name != null) {
+                    String description = input.getAtom(1);
+                    databases.add(new Database(name, description != null ? description : name));
+                }
+            }
+        }
+
+        @Override
+        protected Collection<Database> completed(Status status) {
+            synchronized (databaseMap) {
+                for (Database database : databases)
+                    databaseMap.put(database.getName(), database);
+            }
+            return databases;
+        }
+
+        @Override
+        protected Collection<Database> rejected(Status status) throws DictConnectionException {
+            if (status.getStatusCode() == 554) return databases; // No databases present
+            throw unexpected(status);
+        }
+    }
+
+    private class ShowStrategiesCommand extends Command<Set<MatchingStrategy>> {
+        private final Set<MatchingStrategy> strategies = new LinkedHashSet<>();
+
+        private ShowStrategiesCommand() {
+            super("SHOW STRAT");
+        }
+
+        @Override
+        protected void preliminary(Status status) throws DictConnectionException {
+            if (status.getStatusCode() != 111) {
+                super.preliminary(status);
+                return;
+            }
+            while (nextTextLine()) {
+                String name = input.getAtom(0);
+                if (name != null) {
+                    String description = input.getAtom(1);
+                    strategies.add(new MatchingStrategy(name, description != null ? description : name));
+                }
+            }
+        }
+
+        @Override
+        protected Set<MatchingStrategy> completed(Status status) {
+            return strategies;
+        }
+
+        @Override
+        protected Set<MatchingStrategy> rejected(Status status) throws DictConnectionException {
+            if (status.getStatusCode() == 555) return strategies; // No strategies available
+            throw unexpected(status);
         }
     }
 
@@ -92,46 +451,73 @@ public class DictionaryConnection {
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
     public synchronized Collection<Definition> getDefinitions(String word, Database database) throws DictConnectionException {
-        Collection<Definition> set = new ArrayList<>();
-        getDatabaseList(); // Ensure the list of databases has been populated
-        try {
-            this.output.println("DEFINE " + database.getName() + " " + word);
-            this.output.flush();
-            String firstLine;
-            while(!(firstLine = this.input.readLine()).split(" ")[0].equals("150")) {
-                String status = firstLine.split(" ")[0];
-                if (status.equals("550") || status.equals("551") || status.equals("552") || status.equals("501")) {
-                    return set;
-                }
-            }
-            String reply = this.input.readLine();
-            String[] replyArr = reply.split(" ",4);
-            Definition defn = new Definition(word, databaseMap.get(replyArr[2]));
-            reply = this.input.readLine();
-            replyArr = reply.split(" ", 4);
-            while(reply != null){
-                if(replyArr[0].equals("250")){
-                    break;
-                }
-                if(replyArr[0].equals("151")){
-                    set.add(defn);
-                    defn = new Definition(word, databaseMap.get(replyArr[2]));
-                    reply = this.input.readLine();
-                    replyArr = reply.split(" ",4);
-                }else {
-                    if(!reply.equals(".")) {
-                        defn.appendDefinition(reply);
-                    }
-                    reply = this.input.readLine();
-                    replyArr = reply.split(" ", 4);
-                }
-            }
-            set.add(defn);
+        return execute(new DefineCommand(word, database, null, null));
+    }
 
-        } catch (Exception e) {
-            throw new DictConnectionException();
-        }
-        return set;
+    /** Requests and retrieves all definitions for a specific word, passing each definition to a consumer as soon as it
+     * is received, so that the first definitions may be shown while the server is still sending the others.
+     *
+     * @param word The word whose definition is to be retrieved.
+     * @param database The database to be used to retrieve the definition (including the special databases '*' and
+     *                 '!').
+     * @param consumer Action performed with each definition, in the order they are received.
+     * @return A collection of Definition objects containing all definitions returned by the server.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    public synchronized Collection<Definition> getDefinitions(String word, Database database,
+                                                              Consumer<Definition> consumer) throws DictConnectionException {
+        return execute(new DefineCommand(word, database, consumer, null));
+    }
+
+    /** Requests and retrieves the complete text of a definition that was truncated because it exceeded the maximum
+     * length of a definition.
+     *
+     * @param definition The truncated definition.
+     * @return The same definition with its complete text, or the original definition if the server no longer has it.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    public synchronized Definition getFullDefinition(Definition definition) throws DictConnectionException {
+        DefineCommand command = new DefineCommand(definition.getWord(), definition.getDatabase(), null, null);
+        command.maxLength = Integer.MAX_VALUE;
+        for (Definition full : execute(command))
+            if (full.getDatabase().equals(definition.getDatabase()))
+                return full;
+        return definition;
+    }
+
+    /** Requests and retrieves all definitions for several words, pipelining the requests. The definitions of each word
+     * are passed to the consumer as soon as they are received, in the order of the words.
+     *
+     * @param words The words whose definitions are to be retrieved.
+     * @param database The database to be used to retrieve the definitions (including the special databases '*' and
+     *                 '!').
+     * @param consumer Action performed with each word and the collection of its definitions (possibly empty).
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    public synchronized void getDefinitions(Collection<String> words, Database database,
+                                            BiConsumer<String, Collection<Definition>> consumer) throws DictConnectionException {
+        getDefinitions(words, database, null, consumer);
+    }
+
+    /** Requests and retrieves all definitions for several words, pipelining the requests. Each definition is passed to
+     * a consumer as soon as it is received, and the definitions of each word are passed to another consumer once all
+     * of them were received, in the order of the words.
+     *
+     * @param words The words whose definitions are to be retrieved.
+     * @param database The database to be used to retrieve the definitions (including the special databases '*' and
+     *                 '!').
+     * @param definitionConsumer Action performed with each definition, or null.
+     * @param wordConsumer Action performed with each word and the collection of its definitions (possibly empty), or
+     *                     null.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    public synchronized void getDefinitions(Collection<String> words, Database database,
+                                            Consumer<Definition> definitionConsumer,
+                                            BiConsumer<String, Collection<Definition>> wordConsumer) throws DictConnectionException {
+        List<DefineCommand> commands = new ArrayList<>();
+        for (String word : words)
+            commands.add(new DefineCommand(word, database, definitionConsumer, wordConsumer));
+        execute(commands);
     }
 
     /** Requests and retrieves a list of matches for a specific word pattern.
@@ -145,31 +531,15 @@ public class DictionaryConnection {
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
     public synchronized Set<String> getMatchList(String word, MatchingStrategy strategy, Database database) throws DictConnectionException {
-        Set<String> set = new LinkedHashSet<>();
-
-        try {
-
-            this.output.println("MATCH " + database.getName() + " " + strategy.getName() + " " + word);
-            this.output.flush();
-            String firstLine;
-            while (!(firstLine = this.input.readLine()).split(" ")[0].equals("152")) {
-                String status = firstLine.split(" ")[0];
-                if (status.equals("550") || status.equals("551") || status.equals("552") || status.equals("501")) {
-                    set.add(firstLine);
-                    return set;
-                }
-            }
-            String[] str = firstLine.split(" ");
-            Stream<String> lines = this.input.lines().limit(Integer.parseInt(str[1]));
-            Object[] arr = lines.toArray();
-            for (int i = 0; i < arr.length; i++) {
-                set.add(arr[i].toString().split(" ", 2)[1]);
-            }
-        } catch (IOException e) {
-            throw new DictConnectionException();
-        }
+        lastMatchTruncated = false;
+        return execute(new MatchCommand(word, strategy, database));
+    }
 
-        return set;
+    /** Returns whether the server announced more matches in the reply to the last call to getMatchList() than it sent,
+     * i.e., whether the list of matches may have been truncated.
+     */
+    synchronized boolean wasLastMatchTruncated() {
+        return lastMatchTruncated;
     }
 
     /** Requests and retrieves a list of all valid databases used in the server. In addition to returning the list, this
@@ -180,25 +550,10 @@ public class DictionaryConnection {
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
     public synchronized Collection<Database> getDatabaseList() throws DictConnectionException {
-
-        if (!databaseMap.isEmpty()) return databaseMap.values();
-
-        try {
-            this.output.println("SHOW DB");
-            this.output.flush();
-            String firstLine = this.input.readLine();
-            String[] str = firstLine.split(" ");
-            Stream<String> lines = this.input.lines().limit(Integer.parseInt(str[1]));
-            Object[] arr = lines.toArray();
-            for (int i = 0; i < arr.length; i++) {
-                String[] dbData = arr[i].toString().split(" ", 2);
-                databaseMap.put(dbData[0], new Database(dbData[0], dbData[1]));
-            }
-        } catch (IOException e) {
-            throw new DictConnectionException();
+        synchronized (databaseMap) {
+            if (!databaseMap.isEmpty()) return new ArrayList<>(databaseMap.values());
         }
-
-        return databaseMap.values();
+        return execute(new ShowDatabasesCommand());
     }
 
     /** Requests and retrieves a list of all valid matching strategies supported by the server.
@@ -207,31 +562,23 @@ public class DictionaryConnection {
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
     public synchronized Set<MatchingStrategy> getStrategyList() throws DictConnectionException {
-        Set<MatchingStrategy> set = new LinkedHashSet<>();
-
-        try{
-            this.output.println("SHOW STRAT");
-            this.output.flush();
-            String firstLine;
-            while(!(firstLine = this.input.readLine()).split(" ")[0].equals("111")) {
-                String status = firstLine.split(" ")[0];
-                if (status.equals("550") || status.equals("551") || status.equals("552") || status.equals("501")) {
-                    return set;
-                }
-            }
-            String[] str = firstLine.split(" ");
-            Stream<String> lines = this.input.lines().limit(Integer.parseInt(str[1]));
-            Object[] arr = lines.toArray();
-            for (int i = 0; i < arr.length; i++) {
-                String[] strat = arr[i].toString().split(" ", 2);
-                set.add(new MatchingStrategy(strat[0], strat[1]));
-            }
-
-        }catch(IOException e){
-            throw new DictConnectionException();
-        }
+        return execute(new ShowStrategiesCommand());
+    }
 
-        return set;
+    /** Requests and retrieves both the list of databases and the list of matching strategies, in a single round trip.
+     * The local databaseMap field is updated as in getDatabaseList().
+     *
+     * @param databases  Collection where the databases supported by the server are added.
+     * @param strategies Collection where the matching strategies supported by the server are added.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    public synchronized void getServerLists(Collection<Database> databases, Collection<MatchingStrategy> strategies)
+            throws DictConnectionException {
+        ShowDatabasesCommand showDatabases = new ShowDatabasesCommand();
+        ShowStrategiesCommand showStrategies = new ShowStrategiesCommand();
+        execute(Arrays.asList(showDatabases, showStrategies));
+        databases.addAll(showDatabases.result);
+        strategies.addAll(showStrategies.result);
     }
 
 }
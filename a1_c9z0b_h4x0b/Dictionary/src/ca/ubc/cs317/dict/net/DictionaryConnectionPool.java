@@ -0,0 +1,388 @@
+package ca.ubc.cs317.dict.net;
+
+import ca.ubc.cs317.dict.exception.DictConnectionException;
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.util.LruCache;
+import ca.ubc.cs317.dict.util.PrefixIndex;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A pool of connections to the same DICT server, so that independent requests (e.g., a DEFINE and the MATCH requests
+ * used for suggestions) run in parallel over separate connections instead of waiting for each other. Connections are
+ * created as needed, up to a maximum number, and are borrowed for the duration of a single request. All connections
+ * share the same map of databases, so the list of databases is only retrieved once. A connection that was idle for a
+ * while is checked with a STATUS command before it is used again, and a connection that failed is closed and replaced.
+ *
+ * Definitions and matches are cached, keyed by the word, database and (for matches) strategy, so that repeated
+ * lookups, e.g., the same prefix typed again, are answered without a round trip. Cached results expire after a while,
+ * and the least recently used ones are evicted once the cache is full. Complete lists of matches obtained with the
+ * prefix strategy are also kept in a PrefixIndex, so that the matches of a longer prefix (e.g., typing "serve" after
+ * "serv") are found locally.
+ */
+public class DictionaryConnectionPool {
+
+    public static final int DEFAULT_SIZE = 4;
+    private static final long IDLE_CHECK_INTERVAL = 30000;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+    public static final long DEFAULT_CACHE_TTL = 10 * 60 * 1000;
+
+    private String host;
+    private int port;
+    private int maxSize;
+
+    private Deque<DictionaryConnection> idleConnections = new ArrayDeque<>();
+    private Map<DictionaryConnection, Long> lastUsed = new HashMap<>();
+    private int openConnections = 0;
+    private boolean closed = false;
+
+    private final Map<String, Database> databaseMap = new LinkedHashMap<>();
+
+    private LruCache<List<String>, Collection<Definition>> definitionCache =
+            new LruCache<>(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL);
+    private LruCache<List<String>, Set<String>> matchCache = new LruCache<>(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL);
+    private PrefixIndex prefixIndex = new PrefixIndex(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL);
+
+    // Strategies where the matches of a longer pattern are a subset of the matches of a shorter one
+    private static final Set<String> NARROWING_STRATEGIES = Collections.singleton("prefix");
+
+    // Whether the last call to getMatchList() by each thread was answered without a request to the server
+    private final ThreadLocal<Boolean> lastMatchLocal = ThreadLocal.withInitial(() -> false);
+
+    /** A request performed on a borrowed connection. */
+    public interface Request<T> {
+        T perform(DictionaryConnection connection) throws DictConnectionException;
+    }
+
+    /** Creates a pool of connections with a DICT server. A first connection is established immediately, so that an
+     * invalid server is reported right away.
+     *
+     * @param host    Name of the host where the DICT server is running
+     * @param port    Port number used by the DICT server
+     * @param maxSize Maximum number of connections open at the same time
+     * @throws DictConnectionException If the first connection can't be established.
+     */
+    public DictionaryConnectionPool(String host, int port, int maxSize) throws DictConnectionException {
+        this.host = host;
+        this.port = port;
+        this.maxSize = Math.max(maxSize, 1);
+        release(createConnection());
+    }
+
+    /** Creates a pool of connections with a DICT server on the default DICT port.
+     *
+     * @param host    Name of the host where the DICT server is running
+     * @param maxSize Maximum number of connections open at the same time
+     * @throws DictConnectionException If the first connection can't be established.
+     */
+    public DictionaryConnectionPool(String host, int maxSize) throws DictConnectionException {
+        this(host, DictionaryConnection.DEFAULT_PORT, maxSize);
+    }
+
+    private DictionaryConnection createConnection() throws DictConnectionException {
+        synchronized (this) {
+            openConnections++;
+        }
+        try {
+            return new DictionaryConnection(host, port, databaseMap);
+        } catch (DictConnectionException ex) {
+            synchronized (this) {
+                openConnections--;
+                notifyAll();
+            }
+            throw ex;
+        }
+    }
+
+    /** Borrows a connection, waiting for one to be returned if all connections are in use. Connections that were idle
+     * for a while are checked first, and replaced if they no longer respond. The connection must be given back with
+     * release() or, if it failed, invalidate().
+     *
+     * @return A connection that is not used by any other request.
+     * @throws DictConnectionException If the pool was closed, or a new connection can't be established.
+     */
+    public DictionaryConnection borrow() throws DictConnectionException {
+        while (true) {
+            DictionaryConnection connection;
+            boolean check;
+            synchronized (this) {
+                while (!closed && idleConnections.isEmpty() && openConnections >= maxSize) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DictConnectionException("Interrupted while waiting for a connection", e);
+                    }
+                }
+                if (closed)
+                    throw new DictConnectionException("Connection pool closed");
+                connection = idleConnections.pollLast();
+                if (connection == null) break;
+                check = System.currentTimeMillis() - lastUsed.remove(connection) > IDLE_CHECK_INTERVAL;
+            }
+            if (!check || connection.isHealthy())
+                return connection;
+            invalidate(connection);
+        }
+        return createConnection();
+    }
+
+    /** Returns a borrowed connection to the pool, so that it can be used by other requests.
+     *
+     * @param connection Connection obtained from borrow().
+     */
+    public void release(DictionaryConnection connection) {
+        synchronized (this) {
+            if (!closed) {
+                idleConnections.addLast(connection);
+                lastUsed.put(connection, System.currentTimeMillis());
+                notifyAll();
+                return;
+            }
+            openConnections--;
+        }
+        connection.close();
+    }
+
+    /** Closes a borrowed connection that failed, instead of returning it to the pool. A new connection will be
+     * established when needed.
+     *
+     * @param connection Connection obtained from borrow().
+     */
+    public void invalidate(DictionaryConnection connection) {
+        synchronized (this) {
+            openConnections--;
+            notifyAll();
+        }
+        connection.close();
+    }
+
+    /** Performs a request on a borrowed connection, and returns the connection to the pool. If the request fails, the
+     * connection is closed instead.
+     *
+     * @param request The request to be performed.
+     * @return The result of the request.
+     * @throws DictConnectionException If no connection could be borrowed, or the request failed.
+     */
+    public <T> T perform(Request<T> request) throws DictConnectionException {
+        DictionaryConnection connection = borrow();
+        T result;
+        try {
+            result = request.perform(connection);
+        } catch (DictConnectionException | RuntimeException ex) {
+            invalidate(connection);
+            throw ex;
+        }
+        release(connection);
+        return result;
+    }
+
+    /** Changes the size and age limits of the caches of definitions and matches.
+     *
+     * @param maxEntries Maximum number of results kept in each cache (0 to disable caching).
+     * @param timeToLive Time, in milliseconds, a result is kept after it was retrieved.
+     */
+    public void setCacheLimits(int maxEntries, long timeToLive) {
+        definitionCache.setLimits(maxEntries, timeToLive);
+        matchCache.setLimits(maxEntries, timeToLive);
+        prefixIndex.setLimits(maxEntries, timeToLive);
+    }
+
+    /** Returns the cache of definitions, e.g., to report its hit and miss counters. */
+    public LruCache<List<String>, Collection<Definition>> getDefinitionCache() {
+        return definitionCache;
+    }
+
+    /** Returns the index of prefix matches, e.g., to report the number of matches found locally. */
+    public PrefixIndex getPrefixIndex() {
+        return prefixIndex;
+    }
+
+    /** Returns the cache of matches, e.g., to report its hit and miss counters. */
+    public LruCache<List<String>, Set<String>> getMatchCache() {
+        return matchCache;
+    }
+
+    private static List<String> definitionKey(String word, Database database) {
+        return Arrays.asList(word, database.getName());
+    }
+
+    /** Requests and retrieves all definitions for a specific word, using any available connection, unless they are
+     * already cached.
+     *
+     * @see DictionaryConnection#getDefinitions(String, Database)
+     */
+    public Collection<Definition> getDefinitions(String word, Database database) throws DictConnectionException {
+        List<String> key = definitionKey(word, database);
+        Collection<Definition> definitions = definitionCache.get(key);
+        if (definitions == null) {
+            definitions = Collections.unmodifiableCollection(perform(connection -> connection.getDefinitions(word, database)));
+            definitionCache.put(key, definitions);
+        }
+        return definitions;
+    }
+
+    /** Requests and retrieves all definitions for a specific word, streaming each definition to a consumer as it is
+     * received (or, if the definitions are cached, immediately).
+     *
+     * @see DictionaryConnection#getDefinitions(String, Database, Consumer)
+     */
+    public Collection<Definition> getDefinitions(String word, Database database, Consumer<Definition> consumer)
+            throws DictConnectionException {
+        List<String> key = definitionKey(word, database);
+        Collection<Definition> definitions = definitionCache.get(key);
+        if (definitions != null) {
+            definitions.forEach(consumer);
+            return definitions;
+        }
+        definitions = Collections.unmodifiableCollection(perform(connection -> connection.getDefinitions(word, database, consumer)));
+        definitionCache.put(key, definitions);
+        return definitions;
+    }
+
+    /** Requests and retrieves the complete text of a truncated definition, using any available connection. The
+     * complete text is not cached.
+     *
+     * @see DictionaryConnection#getFullDefinition(Definition)
+     */
+    public Definition getFullDefinition(Definition definition) throws DictConnectionException {
+        return perform(connection -> connection.getFullDefinition(definition));
+    }
+
+    /** Requests and retrieves all definitions for several words, pipelined over a single connection. Words whose
+     * definitions are cached are not requested, but are still passed to the consumer in the order of the words.
+     *
+     * @see DictionaryConnection#getDefinitions(Collection, Database, BiConsumer)
+     */
+    public void getDefinitions(Collection<String> words, Database database,
+                               BiConsumer<String, Collection<Definition>> consumer) throws DictConnectionException {
+        getDefinitions(words, database, null, consumer);
+    }
+
+    /** Requests and retrieves all definitions for several words, pipelined over a single connection, streaming each
+     * definition to a consumer as it is received. Words whose definitions are cached are not requested, but their
+     * definitions are still passed to the consumers in the order of the words.
+     *
+     * @see DictionaryConnection#getDefinitions(Collection, Database, Consumer, BiConsumer)
+     */
+    public void getDefinitions(Collection<String> words, Database database, Consumer<Definition> definitionConsumer,
+                               BiConsumer<String, Collection<Definition>> wordConsumer) throws DictConnectionException {
+        Consumer<Definition> onDefinition = definitionConsumer != null ? definitionConsumer : definition -> {};
+        BiConsumer<String, Collection<Definition>> onWord = wordConsumer != null ? wordConsumer : (word, definitions) -> {};
+        List<String> ordered = new ArrayList<>(words);
+        List<Collection<Definition>> cached = new ArrayList<>(ordered.size());
+        List<String> missing = new ArrayList<>();
+        for (String word : ordered) {
+            Collection<Definition> definitions = definitionCache.get(definitionKey(word, database));
+            cached.add(definitions);
+            if (definitions == null) missing.add(word);
+        }
+
+        // Cached words are passed on as soon as the missing words before them were received
+        int[] next = {0};
+        BiConsumer<String, Collection<Definition>> deliverCached = (word, definitions) -> {
+            for (; next[0] < ordered.size() && cached.get(next[0]) != null; next[0]++) {
+                cached.get(next[0]).forEach(onDefinition);
+                onWord.accept(ordered.get(next[0]), cached.get(next[0]));
+            }
+        };
+        deliverCached.accept(null, null);
+        if (!missing.isEmpty())
+            perform(connection -> {
+                connection.getDefinitions(missing, database, onDefinition, (word, definitions) -> {
+                    definitions = Collections.unmodifiableCollection(definitions);
+                    definitionCache.put(definitionKey(word, database), definitions);
+                    onWord.accept(word, definitions);
+                    next[0]++;
+                    deliverCached.accept(null, null);
+                });
+                return null;
+            });
+    }
+
+    /** Requests and retrieves a list of matches for a specific word pattern, using any available connection, unless
+     * they are already cached.
+     *
+     * @see DictionaryConnection#getMatchList(String, MatchingStrategy, Database)
+     */
+    public Set<String> getMatchList(String word, MatchingStrategy strategy, Database database) throws DictConnectionException {
+        List<String> key = Arrays.asList(word, database.getName(), strategy.getName());
+        lastMatchLocal.set(true);
+        Set<String> matches = matchCache.get(key);
+        if (matches != null) return matches;
+
+        // Matches in the first database with a match ('!') may come from a database that had no match for the shorter
+        // prefix, so they can't be narrowed
+        boolean narrowing = NARROWING_STRATEGIES.contains(strategy.getName()) && !database.getName().equals("!");
+        if (narrowing && (matches = prefixIndex.narrow(database.getName(), word)) != null)
+            return Collections.unmodifiableSet(matches);
+
+        lastMatchLocal.set(false);
+        boolean[] truncated = new boolean[1];
+        matches = Collections.unmodifiableSet(perform(connection -> {
+            Set<String> result = connection.getMatchList(word, strategy, database);
+            truncated[0] = connection.wasLastMatchTruncated();
+            return result;
+        }));
+        matchCache.put(key, matches);
+        if (narrowing && !truncated[0])
+            prefixIndex.add(database.getName(), word, matches);
+        return matches;
+    }
+
+    /** Returns whether the last call to getMatchList() made by the current thread was answered from the caches,
+     * without a request to the server.
+     */
+    public boolean wasLastMatchLocal() {
+        return lastMatchLocal.get();
+    }
+
+    /** Requests and retrieves the list of databases shared by all connections in the pool.
+     *
+     * @see DictionaryConnection#getDatabaseList()
+     */
+    public Collection<Database> getDatabaseList() throws DictConnectionException {
+        return perform(DictionaryConnection::getDatabaseList);
+    }
+
+    /** Requests and retrieves a list of all valid matching strategies supported by the server.
+     *
+     * @see DictionaryConnection#getStrategyList()
+     */
+    public Set<MatchingStrategy> getStrategyList() throws DictConnectionException {
+        return perform(DictionaryConnection::getStrategyList);
+    }
+
+    /** Requests and retrieves both the list of databases and the list of matching strategies, in a single round trip.
+     *
+     * @see DictionaryConnection#getServerLists(Collection, Collection)
+     */
+    public void getServerLists(Collection<Database> databases, Collection<MatchingStrategy> strategies)
+            throws DictConnectionException {
+        perform(connection -> {
+            connection.getServerLists(databases, strategies);
+            return null;
+        });
+    }
+
+    /** Closes all connections in the pool. Connections currently in use are closed once they are returned, and requests
+     * waiting for a connection fail.
+     */
+    public void close() {
+        List<DictionaryConnection> connections;
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList<>(idleConnections);
+            openConnections -= connections.size();
+            idleConnections.clear();
+            lastUsed.clear();
+            notifyAll();
+        }
+        for (DictionaryConnection connection : connections)
+            connection.close();
+    }
+}
@@ -0,0 +1,149 @@
+package ca.ubc.cs317.dict.net;
+
+import ca.ubc.cs317.dict.exception.DictConnectionException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads that perform the network operations of AsyncDictionaryConnection objects. Each thread waits on its own
+ * Selector for any of its connections to be ready, and connections are assigned to threads in turn, so that a few
+ * threads may serve hundreds of connections. A separate timer thread enforces the timeouts of requests. All state of
+ * a connection is only accessed by its thread: other threads pass work to it as tasks.
+ */
+public class DictionaryEventLoop implements Closeable {
+
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** Creates an event loop with a single thread. */
+    public DictionaryEventLoop() throws IOException {
+        this(1);
+    }
+
+    /** Creates an event loop and starts its threads.
+     *
+     * @param threads Number of threads serving connections.
+     * @throws IOException If a selector could not be opened.
+     */
+    public DictionaryEventLoop(int threads) throws IOException {
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "DICT timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        workers = new Worker[Math.max(threads, 1)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(Selector.open());
+            Thread thread = new Thread(workers[i], "DICT event loop " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Returns the thread that serves the next connection. */
+    Worker nextWorker() {
+        return workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+    }
+
+    /** Runs a task on the timer thread after a delay, in milliseconds. */
+    ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops all threads. Requests still pending on any connection fail with a DictConnectionException. */
+    @Override
+    public void close() {
+        for (Worker worker : workers)
+            worker.close();
+        timer.shutdownNow();
+    }
+
+    /** A thread serving the connections registered with its selector. The selected keys have the connection they
+     * belong to attached.
+     */
+    static class Worker implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running = true;
+        private volatile boolean closing = false;
+
+        private Worker(Selector selector) {
+            this.selector = selector;
+        }
+
+        Selector getSelector() {
+            return selector;
+        }
+
+        /** Runs a task on this thread.
+         *
+         * @throws RejectedExecutionException If the event loop was closed.
+         */
+        void execute(Runnable task) {
+            synchronized (this) {
+                if (!running) throw new RejectedExecutionException("Event loop closed");
+                tasks.add(task);
+            }
+            selector.wakeup();
+        }
+
+        private void close() {
+            closing = true;
+            selector.wakeup();
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while (true) {
+                synchronized (this) {
+                    task = tasks.poll();
+                }
+                if (task == null) return;
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            IOException failure = null;
+            try {
+                while (!closing) {
+                    selector.select();
+                    runTasks();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        // Keys may have been cancelled by the tasks just run
+                        if (key.isValid())
+                            ((AsyncDictionaryConnection) key.attachment()).handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                // The selector failed: the requests of every connection fail with the cause
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    running = false;
+                }
+                runTasks();
+                DictConnectionException closed = failure == null ? new DictConnectionException("Event loop closed")
+                        : new DictConnectionException("Event loop failed", failure);
+                for (SelectionKey key : selector.keys())
+                    ((AsyncDictionaryConnection) key.attachment()).fail(closed);
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Nothing left to do with the selector
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ca.ubc.cs317.dict.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of DICT replies directly from the bytes received, without decoding each line into a String first.
+ * Each line is read into a reusable buffer, from which status codes are parsed as numbers, text terminators and
+ * dot-stuffed lines are recognized, and atoms (e.g., the word in a MATCH line) are extracted, so that the only objects
+ * created are the strings actually kept. Lines are decoded as UTF-8, as required by RFC 2229.
+ *
+ * A reader either reads from a blocking InputStream (nextLine()), or is filled from a non-blocking channel whenever data
+ * is available (read()), in which case only complete lines are returned (nextBufferedLine()).
+ */
+public class ResponseReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private InputStream input;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    // The current line, without its line terminator
+    private byte[] line = new byte[256];
+    private int length = 0;
+
+    public ResponseReader(InputStream input) {
+        this.input = input;
+    }
+
+    /** Creates a reader that is filled from a channel with read(). */
+    public ResponseReader() {
+    }
+
+    /** Reads the next line into the line buffer, replacing the current line.
+     *
+     * @return true if a line was read, false if the connection was closed.
+     * @throws IOException If the line could not be read.
+     */
+    public boolean nextLine() throws IOException {
+        length = 0;
+        while (true) {
+            if (position == limit) {
+                limit = input.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return length > 0;
+                }
+            }
+            // Copy up to the end of the line (or of the buffer) at once
+            int start = position;
+            while (position < limit && buffer[position] != '\n') position++;
+            append(start, position - start);
+            if (position < limit) {
+                position++; // Skip the '\n'
+                if (length > 0 && line[length - 1] == '\r') length--;
+                return true;
+            }
+        }
+    }
+
+    /** Reads the bytes available from a non-blocking channel into the buffer, after the bytes not yet returned as
+     * lines. The buffer is enlarged if it is full of an incomplete line.
+     *
+     * @return The number of bytes read, possibly 0, or -1 if the channel was closed.
+     * @throws IOException If the channel could not be read.
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        int count = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (count > 0) limit += count;
+        return count;
+    }
+
+    /** Reads the next complete line of the buffer into the line buffer, replacing the current line. Bytes following
+     * the last complete line are kept until the rest of their line is read.
+     *
+     * @return true if a line was read, false if the buffer holds no complete line.
+     */
+    public boolean nextBufferedLine() {
+        int end = position;
+        while (end < limit && buffer[end] != '\n') end++;
+        if (end == limit) return false;
+        length = 0;
+        append(position, end - position);
+        position = end + 1;
+        if (length > 0 && line[length - 1] == '\r') length--;
+        return true;
+    }
+
+    private void append(int start, int count) {
+        if (length + count > line.length) {
+            byte[] larger = new byte[Math.max(line.length * 2, length + count)];
+            System.arraycopy(line, 0, larger, 0, length);
+            line = larger;
+        }
+        System.arraycopy(buffer, start, line, length, count);
+        length += count;
+    }
+
+    /** Returns the status code at the start of the current line.
+     *
+     * @return The three-digit status code, or -1 if the line does not start with one.
+     */
+    public int getStatusCode() {
+        if (length < 3 || (length > 3 && line[3] != ' ')) return -1;
+        int code = 0;
+        for (int i = 0; i < 3; i++) {
+            if (line[i] < '0' || line[i] > '9') return -1;
+            code = code * 10 + (line[i] - '0');
+        }
+        return code;
+    }
+
+    /** Returns the text following the status code of the current line. */
+    public String getStatusDetails() {
+        return length > 4 ? new String(line, 4, length - 4, StandardCharsets.UTF_8) : "";
+    }
+
+    /** Returns whether the current line is the terminator of a text response (a single period). */
+    public boolean isTerminator() {
+        return length == 1 && line[0] == '.';
+    }
+
+    /** Returns the current line of a text response, removing the period added to lines that start with a period. */
+    public String getText() {
+        int start = length > 1 && line[0] == '.' && line[1] == '.' ? 1 : 0;
+        return new String(line, start, length - start, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the current line as received. */
+    public String getLine() {
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Returns an atom of the current line: a sequence of characters delimited by spaces, or by double quotes (which
+     * are not included), as split by DictStringParser.
+     *
+     * @param index Index of the atom in the line, starting at 0.
+     * @param from  Offset in the line where atoms start (e.g., 4 to skip a status code).
+     * @return The atom, or null if the line has fewer atoms.
+     */
+    public String getAtom(int index, int from) {
+        int i = from;
+        for (int atom = 0; ; atom++) {
+            while (i < length && (line[i] == ' ' || line[i] == '\t')) i++;
+            if (i >= length) return null;
+            int start, end;
+            if (line[i] == '"') {
+                start = ++i;
+                while (i < length && line[i] != '"') i++;
+                end = i;
+                if (i < length) i++; // Skip the closing quote
+            } else {
+                start = i;
+                while (i < length && line[i] != ' ' && line[i] != '\t') i++;
+                end = i;
+            }
+            if (atom == index)
+                return new String(line, start, end - start, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Returns an atom of the current line, counting from the start of the line.
+     *
+     * @see #getAtom(int, int)
+     */
+    public String getAtom(int index) {
+        return getAtom(index, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (input != null) input.close();
+    }
+}
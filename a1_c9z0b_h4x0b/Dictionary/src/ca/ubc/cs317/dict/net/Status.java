@@ -7,6 +7,10 @@ import java.io.IOException;
 
 /**
  * Created by Jonatan on 2017-09-09.
+ *
+ * The type of a status (its first digit) determines how the reply to a command continues: a preliminary reply (1xx)
+ * is followed by more status lines, and possibly by a text response, while completion (2xx) and negative (4xx, 5xx)
+ * replies end it.
  */
 public class Status {
 
@@ -20,6 +24,8 @@ public class Status {
     private String details;
 
     private Status(String line) throws DictConnectionException {
+        if (line == null)
+            throw new DictConnectionException("Connection closed by server");
         String[] components = line.split(" ", 2);
         if (components.length < 2)
             throw new DictConnectionException("Invalid status line");
@@ -33,12 +39,46 @@ public class Status {
         this.details = components[1];
     }
 
+    private Status(int statusCode, String details) {
+        this.statusCode = statusCode;
+        this.details = details;
+    }
+
     public static Status readStatus(BufferedReader input) throws DictConnectionException {
         try {
             return new Status(input.readLine());
         } catch (IOException ex) {
-            throw new DictConnectionException();
+            throw new DictConnectionException(ex);
+        }
+    }
+
+    /** Reads a status line from a ResponseReader, parsing the status code directly from the bytes received.
+     *
+     * @param input The reader the status line is read from.
+     * @return The status read.
+     * @throws DictConnectionException If the connection was closed or the line is not a valid status line.
+     */
+    public static Status readStatus(ResponseReader input) throws DictConnectionException {
+        try {
+            if (!input.nextLine())
+                throw new DictConnectionException("Connection closed by server");
+        } catch (IOException ex) {
+            throw new DictConnectionException(ex);
         }
+        return parseStatus(input);
+    }
+
+    /** Parses the current line of a ResponseReader as a status line.
+     *
+     * @param input The reader holding the status line.
+     * @return The status parsed.
+     * @throws DictConnectionException If the line is not a valid status line.
+     */
+    public static Status parseStatus(ResponseReader input) throws DictConnectionException {
+        int statusCode = input.getStatusCode();
+        if (statusCode < 100 || statusCode > 599)
+            throw new DictConnectionException("Status code number expected (" + input.getLine() + ")");
+        return new Status(statusCode, input.getStatusDetails());
     }
 
     public int getStatusCode() {
@@ -57,4 +97,20 @@ public class Status {
         return getStatusType() == TRANSIENT_NEGATIVE_REPLY ||
                 getStatusType() == PERMANENT_NEGATIVE_REPLY;
     }
+
+    /** Returns whether the status is followed by a text response ending with a line containing a single period. */
+    public boolean isFollowedByText() {
+        switch (statusCode) {
+            case 110: // Databases present
+            case 111: // Strategies available
+            case 112: // Database information
+            case 113: // Help text
+            case 114: // Server information
+            case 151: // Word, database and definition
+            case 152: // Matches found
+                return true;
+            default:
+                return false;
+        }
+    }
 }
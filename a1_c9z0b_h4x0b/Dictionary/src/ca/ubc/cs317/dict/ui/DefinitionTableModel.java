@@ -78,4 +78,31 @@ public class DefinitionTableModel extends AbstractTableModel {
         definitionList.addAll(definitions);
         fireTableDataChanged();
     }
+
+    public Definition getDefinition(int row) {
+        return definitionList.get(row);
+    }
+
+    /** Replaces the definition in a row, e.g., with its complete text.
+     *
+     * @param row        Index of the row.
+     * @param definition New definition for the row.
+     */
+    public void setDefinition(int row, Definition definition) {
+        definitionList.set(row, definition);
+        fireTableRowsUpdated(row, row);
+    }
+
+    /** Adds definitions after the ones already in the table, e.g., as they are received from the server.
+     *
+     * @param definitions Definitions to be added.
+     * @return The index of the first row added.
+     */
+    public int addDefinitions(Collection<Definition> definitions) {
+        int first = definitionList.size();
+        definitionList.addAll(definitions);
+        if (definitionList.size() > first)
+            fireTableRowsInserted(first, definitionList.size() - 1);
+        return first;
+    }
 }
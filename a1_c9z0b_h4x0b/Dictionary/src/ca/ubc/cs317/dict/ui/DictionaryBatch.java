@@ -0,0 +1,313 @@
+package ca.ubc.cs317.dict.ui;
+
+import ca.ubc.cs317.dict.exception.DictConnectionException;
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.net.DictionaryConnection;
+import ca.ubc.cs317.dict.net.DictionaryConnectionPool;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Retrieves the definitions of a list of words without the graphical interface, e.g., to build a glossary. The words
+ * are read from a file (one per line) and split into batches; each batch is pipelined over one connection of a
+ * DictionaryConnectionPool, and several batches are retrieved at the same time over different connections. The
+ * definitions of each word are written as soon as they are received, either as JSON lines (one object per word) or as
+ * tab-separated values (one row per definition), and statistics are reported when all words were processed. Usage:
+ * <pre>
+ *     java -cp Dictionary.jar ca.ubc.cs317.dict.ui.DictionaryBatch [options] wordFile [outputFile]
+ *
+ *     -s server       DICT server (default dict.org)
+ *     -p port         port of the server (default 2628)
+ *     -d database     database to search (default *, all databases)
+ *     -c connections  number of connections used at the same time (default 4)
+ *     -b batch        number of words pipelined in a single request (default 64)
+ *     -f jsonl|tsv    output format (default: tsv for .tsv files, jsonl otherwise)
+ * </pre>
+ * The output is written to standard output if no output file is given; progress and statistics are written to
+ * standard error. The exit status is 0 if the definitions of all words were retrieved, 1 if the server could not be
+ * reached, 2 if the arguments are invalid, and 3 if the definitions of some words could not be retrieved.
+ */
+public class DictionaryBatch {
+
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final int STATUS_UNREACHABLE = 1;
+    private static final int STATUS_USAGE = 2;
+    private static final int STATUS_WORDS_FAILED = 3;
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    private final DictionaryConnectionPool pool;
+    private final Database database;
+    private final int connections;
+    private final int batchSize;
+    private final boolean tsv;
+    private final Writer output;
+
+    private long wordsDone = 0;
+    private long wordsDefined = 0;
+    private long definitionCount = 0;
+    private long errors = 0;
+    // Time to receive each definition from the time its word was requested, by database name
+    private final Map<String, Latencies> latencies = new TreeMap<>();
+
+    /** The latencies recorded for a database, in nanoseconds. */
+    private static class Latencies {
+        private long[] values = new long[64];
+        private int count = 0;
+
+        private void add(long value) {
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count++] = value;
+        }
+
+        private String summary() {
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long value : sorted) total += value;
+            return String.format("%8d  %10.1f  %10.1f  %10.1f  %10.1f", count, total / 1e6 / count,
+                    sorted[count / 2] / 1e6, sorted[(int) Math.min(count - 1, count * 95L / 100)] / 1e6,
+                    sorted[count - 1] / 1e6);
+        }
+    }
+
+    public DictionaryBatch(DictionaryConnectionPool pool, Database database, int connections, int batchSize,
+                           boolean tsv, Writer output) {
+        this.pool = pool;
+        this.database = database;
+        this.connections = connections;
+        this.batchSize = batchSize;
+        this.tsv = tsv;
+        this.output = output;
+    }
+
+    /** Retrieves the definitions of all words, writing them as they are received, and reports statistics.
+     *
+     * @param words  The words whose definitions are to be retrieved.
+     * @param report Stream where progress and statistics are written.
+     * @return The number of words whose definitions could not be retrieved.
+     */
+    public long run(List<String> words, PrintStream report) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        long start = System.nanoTime();
+        List<Future<?>> batches = new ArrayList<>();
+        for (int i = 0; i < words.size(); i += batchSize) {
+            List<String> batch = words.subList(i, Math.min(i + batchSize, words.size()));
+            batches.add(executor.submit(() -> {
+                retrieve(batch);
+                return null;
+            }));
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+            synchronized (this) {
+                report.printf("%d of %d words, %.0f words/s, %d errors%n", wordsDone, words.size(),
+                        wordsDone / ((System.nanoTime() - start) / 1e9), errors);
+            }
+        }
+        for (Future<?> batch : batches) {
+            try {
+                batch.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace(report);
+            }
+        }
+        output.flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        synchronized (this) {
+            report.printf("%d words (%d with definitions, %d definitions) in %.1f s: %.0f words/s, %d errors%n",
+                    wordsDone, wordsDefined, definitionCount, seconds, wordsDone / seconds, errors);
+            if (!latencies.isEmpty()) {
+                report.printf("%-16s  %8s  %10s  %10s  %10s  %10s%n", "database", "defs", "mean (ms)", "p50 (ms)",
+                        "p95 (ms)", "max (ms)");
+                for (Map.Entry<String, Latencies> entry : latencies.entrySet())
+                    report.printf("%-16s  %s%n", entry.getKey(), entry.getValue().summary());
+            }
+            report.println("Definition cache: " + pool.getDefinitionCache());
+            // Words of a batch that failed altogether (e.g., while writing the output) were never counted as done
+            return errors + (words.size() - wordsDone);
+        }
+    }
+
+    /** Retrieves the definitions of a batch of words over one connection. If the connection fails, the words not yet
+     * received are requested once more, over another connection.
+     */
+    private void retrieve(List<String> batch) throws IOException {
+        int[] received = {0};
+        for (int attempt = 0; ; attempt++) {
+            List<String> remaining = batch.subList(received[0], batch.size());
+            // All words of the batch are requested at once, pipelined, so the time to receive a definition is measured
+            // from the request, including the time spent waiting behind the words before it. Latencies are only
+            // recorded once all definitions of their word were received, so that the definitions of a word cut short
+            // by a failed connection are not counted again when the word is requested once more
+            long requested = System.nanoTime();
+            List<String> pendingDatabases = new ArrayList<>();
+            List<Long> pendingLatencies = new ArrayList<>();
+            try {
+                pool.getDefinitions(remaining, database,
+                        definition -> {
+                            pendingDatabases.add(definition.getDatabase().getName());
+                            pendingLatencies.add(System.nanoTime() - requested);
+                        },
+                        (word, definitions) -> {
+                            for (int i = 0; i < pendingDatabases.size(); i++)
+                                recordLatency(pendingDatabases.get(i), pendingLatencies.get(i));
+                            pendingDatabases.clear();
+                            pendingLatencies.clear();
+                            try {
+                                write(word, definitions);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            received[0]++;
+                        });
+                output.flush();
+                return;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (DictConnectionException e) {
+                if (attempt > 0) {
+                    synchronized (this) {
+                        errors += batch.size() - received[0];
+                        wordsDone += batch.size() - received[0];
+                    }
+                    System.err.println("Failed to retrieve " + (batch.size() - received[0]) + " words starting with "
+                            + batch.get(received[0]) + ": " + e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized void recordLatency(String database, long latency) {
+        latencies.computeIfAbsent(database, name -> new Latencies()).add(latency);
+    }
+
+    private synchronized void write(String word, Collection<Definition> definitions) throws IOException {
+        wordsDone++;
+        if (!definitions.isEmpty()) wordsDefined++;
+        definitionCount += definitions.size();
+        if (tsv) {
+            if (definitions.isEmpty())
+                output.write(tsvField(word) + "\t\t\n");
+            for (Definition definition : definitions)
+                output.write(tsvField(word) + "\t" + tsvField(definition.getDatabase().getName()) + "\t"
+                        + tsvField(definition.getDefinition()) + "\n");
+        } else {
+            StringBuilder line = new StringBuilder("{\"word\":").append(jsonString(word)).append(",\"definitions\":[");
+            boolean first = true;
+            for (Definition definition : definitions) {
+                if (!first) line.append(',');
+                first = false;
+                line.append("{\"database\":").append(jsonString(definition.getDatabase().getName()))
+                        .append(",\"text\":").append(jsonString(definition.getDefinition())).append('}');
+            }
+            output.write(line.append("]}\n").toString());
+        }
+    }
+
+    /** Escapes the characters that would end a TSV field or row. */
+    private static String tsvField(String value) {
+        if (value == null) return "";
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "").replace("\n", "\\n");
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) return "null";
+        StringBuilder json = new StringBuilder(value.length() + 16).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static int usage() {
+        System.err.println("Usage: DictionaryBatch [-s server] [-p port] [-d database] [-c connections] [-b batch]"
+                + " [-f jsonl|tsv] wordFile [outputFile]");
+        return STATUS_USAGE;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int status = run(args);
+        if (status != 0) System.exit(status);
+    }
+
+    /** Runs the batch described by the command-line arguments.
+     *
+     * @return The exit status: 0 on success, 1 if the server could not be reached, 2 if the arguments are invalid, 3
+     *         if the definitions of some words could not be retrieved.
+     */
+    static int run(String[] args) throws IOException, InterruptedException {
+        String server = "dict.org";
+        int port = DictionaryConnection.DEFAULT_PORT;
+        String databaseName = "*";
+        int connections = DictionaryConnectionPool.DEFAULT_SIZE;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        String format = null;
+        List<String> files = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("-") || args[i].length() != 2) {
+                    files.add(args[i]);
+                    continue;
+                }
+                if (i + 1 == args.length) return usage();
+                String value = args[++i];
+                switch (args[i - 1].charAt(1)) {
+                    case 's': server = value; break;
+                    case 'p': port = Integer.parseInt(value); break;
+                    case 'd': databaseName = value; break;
+                    case 'c': connections = Integer.parseInt(value); break;
+                    case 'b': batchSize = Integer.parseInt(value); break;
+                    case 'f': format = value; break;
+                    default: return usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            return usage();
+        }
+        if (files.isEmpty() || files.size() > 2 || connections < 1 || batchSize < 1) return usage();
+        if (format == null)
+            format = files.size() > 1 && files.get(1).endsWith(".tsv") ? "tsv" : "jsonl";
+        if (!format.equals("tsv") && !format.equals("jsonl")) return usage();
+
+        List<String> words = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(files.get(0)), StandardCharsets.UTF_8))
+            if (!line.trim().isEmpty()) words.add(line.trim());
+
+        DictionaryConnectionPool pool;
+        try {
+            pool = new DictionaryConnectionPool(server, port, connections);
+        } catch (DictConnectionException e) {
+            System.err.println("Could not connect to " + server + ": " + e.getMessage());
+            return STATUS_UNREACHABLE;
+        }
+        OutputStream stream = files.size() > 1 ? new FileOutputStream(files.get(1)) : System.out;
+        long failed;
+        try (Writer output = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            Database database = new Database(databaseName, databaseName);
+            failed = new DictionaryBatch(pool, database, connections, batchSize, format.equals("tsv"), output)
+                    .run(words, System.err);
+        } finally {
+            pool.close();
+        }
+        return failed > 0 ? STATUS_WORDS_FAILED : 0;
+    }
+}
@@ -4,16 +4,21 @@ import ca.ubc.cs317.dict.exception.DictConnectionException;
 import ca.ubc.cs317.dict.model.Database;
 import ca.ubc.cs317.dict.model.Definition;
 import ca.ubc.cs317.dict.model.MatchingStrategy;
-import ca.ubc.cs317.dict.net.DictionaryConnection;
+import ca.ubc.cs317.dict.net.DictionaryConnectionPool;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -21,7 +26,12 @@ import java.util.concurrent.ExecutionException;
  */
 public class DictionaryMain extends JFrame {
 
-    private DictionaryConnection connection;
+    // Independent requests (definitions and suggestions) use separate connections from the pool,
+    // so that a slow request doesn't hold up the others
+    private DictionaryConnectionPool connection;
+    private int poolSize = Integer.getInteger("dict.pool.size", DictionaryConnectionPool.DEFAULT_SIZE);
+    private int cacheSize = Integer.getInteger("dict.cache.size", DictionaryConnectionPool.DEFAULT_CACHE_SIZE);
+    private long cacheTTL = Long.getLong("dict.cache.ttl", DictionaryConnectionPool.DEFAULT_CACHE_TTL / 1000) * 1000;
     private String serverName = "dict.org";
 
     private DefaultComboBoxModel<Database> databaseModel;
@@ -32,6 +42,7 @@ public class DictionaryMain extends JFrame {
     private JComboBox<MatchingStrategy> strategySelection;
     private WordSearchField wordSearchField;
     private JTable definitionTable;
+    private SwingWorker<Void, Definition> definitionWorker;
 
     DictionaryMain() {
         super("Dictionary");
@@ -39,7 +50,7 @@ public class DictionaryMain extends JFrame {
         this.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (connection == null)
+                if (connection != null)
                     connection.close();
             }
         });
@@ -105,6 +116,16 @@ public class DictionaryMain extends JFrame {
         definitionTable.getColumnModel().getColumn(1).setPreferredWidth(30);
         definitionTable.getColumnModel().getColumn(2).setPreferredWidth(500);
         this.getContentPane().add(new JScrollPane(definitionTable), BorderLayout.CENTER);
+
+        // Long definitions are truncated; double-clicking one retrieves its complete text
+        definitionTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = definitionTable.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 2 && row >= 0 && definitionModel.getDefinition(row).isTruncated())
+                    showFullDefinition(row);
+            }
+        });
     }
 
     public void handleException(Throwable ex) {
@@ -114,32 +135,77 @@ public class DictionaryMain extends JFrame {
 
     public void showDefinitions() {
 
-        new SwingWorker<Void, Void>() {
+        // Definitions of an earlier search still being received are no longer shown
+        if (definitionWorker != null)
+            definitionWorker.cancel(false);
+        definitionModel.populateDefinitions(Collections.<Definition>emptyList());
+
+        definitionWorker = new SwingWorker<Void, Definition>() {
             private String word = wordSearchField.getSelectedItem().toString();
+            private Database database = (Database) databaseModel.getSelectedItem();
 
             @Override
             protected Void doInBackground() throws Exception {
-                definitionModel.populateDefinitions(connection.getDefinitions(word,
-                        (Database) databaseModel.getSelectedItem()));
+                // Each definition is added to the table as soon as it is received. Once a newer search cancels this
+                // one, the rest of the reply is not read: the pool closes the connection, instead of keeping it busy
+                // until a large reply (e.g., from all databases) was received in full
+                connection.getDefinitions(word, database, definition -> {
+                    if (isCancelled()) throw new CancellationException("Definitions no longer shown");
+                    publish(definition);
+                });
                 return null;
             }
 
+            @Override
+            protected void process(List<Definition> definitions) {
+                if (isCancelled()) return;
+                int first = definitionModel.addDefinitions(definitions);
+                for (int i = first; i < definitionModel.getRowCount(); i++) {
+                    Component c = definitionTable.prepareRenderer(definitionTable.getCellRenderer(i, 2), i, 2);
+                    definitionTable.setRowHeight(i, Math.max((int) c.getPreferredSize().getHeight(), definitionTable.getRowHeight()));
+                }
+            }
+
             @Override
             protected void done() {
+                if (isCancelled()) return;
                 try {
                     get(); // Just to trigger a possible exception caused by doInBackground
-                    for (int i = 0; i<definitionModel.getRowCount() ; i++) {
-                        Component c = definitionTable.prepareRenderer(definitionTable.getCellRenderer(i, 2), i, 2);
-                        definitionTable.setRowHeight(i, Math.max((int) c.getPreferredSize().getHeight(), definitionTable.getRowHeight()));
-                    }
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } catch (ExecutionException e) {
                     handleException(e.getCause());
                 }
             }
-        }.execute();
+        };
+        definitionWorker.execute();
+
+    }
+
+    public void showFullDefinition(final int row) {
+
+        final Definition truncated = definitionModel.getDefinition(row);
+        new SwingWorker<Definition, Void>() {
+            @Override
+            protected Definition doInBackground() throws Exception {
+                return connection.getFullDefinition(truncated);
+            }
 
+            @Override
+            protected void done() {
+                try {
+                    // The table may show the results of another search by now
+                    if (row >= definitionModel.getRowCount() || definitionModel.getDefinition(row) != truncated) return;
+                    definitionModel.setDefinition(row, get());
+                    Component c = definitionTable.prepareRenderer(definitionTable.getCellRenderer(row, 2), row, 2);
+                    definitionTable.setRowHeight(row, Math.max((int) c.getPreferredSize().getHeight(), definitionTable.getRowHeight()));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    handleException(e.getCause());
+                }
+            }
+        }.execute();
     }
 
     public void establishConnection() {
@@ -160,15 +226,21 @@ public class DictionaryMain extends JFrame {
 
             if (serverName.contains(":")) {
                 String[] serverData = serverName.split(":", 2);
-                connection = new DictionaryConnection(serverData[0], Integer.parseInt(serverData[1]));
+                connection = new DictionaryConnectionPool(serverData[0], Integer.parseInt(serverData[1]), poolSize);
             } else
-                connection = new DictionaryConnection(serverName);
+                connection = new DictionaryConnectionPool(serverName, poolSize);
+            connection.setCacheLimits(cacheSize, cacheTTL);
 
-            for (Database db : connection.getDatabaseList()) {
+            // Both lists are requested in a single round trip
+            Collection<Database> databases = new ArrayList<>();
+            Collection<MatchingStrategy> strategies = new ArrayList<>();
+            connection.getServerLists(databases, strategies);
+
+            for (Database db : databases) {
                 databaseModel.addElement(db);
             }
 
-            for (MatchingStrategy strategy : connection.getStrategyList()) {
+            for (MatchingStrategy strategy : strategies) {
                 strategyModel.addElement(strategy);
                 if (strategy.getName().equals("prefix"))
                     strategyModel.setSelectedItem(strategy);
@@ -186,6 +258,13 @@ public class DictionaryMain extends JFrame {
                 (Database) databaseModel.getSelectedItem());
     }
 
+    /** Returns whether the last call to getMatchList() made by the current thread was answered locally, from the
+     * caches of the connection pool, without a request to the server.
+     */
+    public boolean wasLastMatchLocal() {
+        return connection.wasLastMatchLocal();
+    }
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
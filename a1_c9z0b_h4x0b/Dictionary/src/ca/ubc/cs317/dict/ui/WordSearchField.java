@@ -10,6 +10,12 @@ import java.util.concurrent.ExecutionException;
 
 /**
  * Created by Jonatan on 2017-09-10.
+ *
+ * Suggestions are requested once typing pauses: each change to the text restarts a timer, and a MATCH is only sent
+ * when the timer fires. At most one MATCH is outstanding; if the text changes while it is in flight, the latest text
+ * is requested once it completes, and a request whose text was superseded before it was sent is dropped. The pause
+ * adapts to the measured latency of the server (of the requests that were not answered from the caches), so that a
+ * slow server receives fewer requests for text that is about to change.
  */
 public class WordSearchField extends JComboBox<String> implements DocumentListener {
 
@@ -18,6 +24,15 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
 
     private DefaultComboBoxModel<String> model;
 
+    private static final int MIN_DELAY = 75;
+    private static final int MAX_DELAY = 400;
+
+    private Timer debounceTimer;
+    private SwingWorker<Set<String>, Void> worker;
+    private boolean requestDeferred = false;
+    private volatile String latestText = "";
+    private double smoothedLatency = MIN_DELAY;
+
     public WordSearchField(DictionaryMain main) {
 
         this.setModel(model = new DefaultComboBoxModel<>());
@@ -37,9 +52,14 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
         });
         textField = (JTextField) getEditor().getEditorComponent();
         textField.getDocument().addDocumentListener(this);
+
+        debounceTimer = new Timer(MIN_DELAY, e -> requestSuggestions());
+        debounceTimer.setRepeats(false);
     }
 
     public void reset() {
+        debounceTimer.stop();
+        requestDeferred = false;
         model.removeAllElements();
         textField.setText("");
     }
@@ -61,28 +81,63 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
 
 
     public void showSuggestions() {
-        final String typed = textField.getText();
+        latestText = textField.getText();
         model.removeAllElements();
+        if (latestText.isEmpty()) {
+            debounceTimer.stop();
+            return;
+        }
+        debounceTimer.restart();
+    }
+
+    /** Sends a MATCH for the current text, unless one is already in flight, in which case the current text is
+     * requested once that one completes.
+     */
+    private void requestSuggestions() {
+        if (worker != null) {
+            requestDeferred = true;
+            return;
+        }
+        requestDeferred = false;
+        final String typed = textField.getText();
         if (typed.isEmpty())
             return;
 
-        new SwingWorker<Set<String>, String>() {
+        worker = new SwingWorker<Set<String>, Void>() {
             String word = typed;
+            long latency = -1;
 
             @Override
             protected Set<String> doInBackground() throws Exception {
+                // Don't send a request for text that was changed while waiting for a connection
+                if (!word.equals(latestText)) return null;
+                long start = System.nanoTime();
                 Set<String> matches = new LinkedHashSet<>();
                 matches.add(word);
                 matches.addAll(main.getMatchList(word));
+                // Matches found in the caches say nothing about the latency of the server
+                if (!main.wasLastMatchLocal())
+                    latency = (System.nanoTime() - start) / 1000000;
                 return matches;
             }
 
             @Override
             protected void done() {
+                worker = null;
+                if (latency >= 0) {
+                    smoothedLatency = 0.75 * smoothedLatency + 0.25 * latency;
+                    int delay = (int) Math.max(MIN_DELAY, Math.min(MAX_DELAY, smoothedLatency));
+                    debounceTimer.setInitialDelay(delay);
+                    debounceTimer.setDelay(delay);
+                }
+                if (requestDeferred && !debounceTimer.isRunning())
+                    requestSuggestions();
                 // If user typed another character since this worker started, stop
                 if (!textField.getText().equals(word)) return;
                 try {
-                    for (String match : this.get()) {
+                    Set<String> matches = this.get();
+                    if (matches == null) return;
+                    for (String match : matches) {
                         model.addElement(match);
                     }
                     if (model.getSize() > 1)
@@ -95,6 +150,7 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
                     e.printStackTrace();
                 }
             }
-        }.execute();
+        };
+        worker.execute();
     }
 }
@@ -0,0 +1,117 @@
+package ca.ubc.cs317.dict.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of values that evicts entries by age and by size: an entry expires a fixed time after it was added,
+ * and once the cache is full, adding an entry evicts the least recently used one. The number of hits and misses is
+ * counted. All methods are synchronized, so the cache may be shared by concurrent requests.
+ *
+ * @param <K> Type of the keys, which must implement hashCode() and equals().
+ * @param <V> Type of the values.
+ */
+public class LruCache<K, V> {
+
+    private int maxEntries;
+    private long timeToLive;
+    private long hits = 0;
+    private long misses = 0;
+
+    private final LinkedHashMap<K, CachedValue<V>> entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private static class CachedValue<V> {
+        private final V value;
+        private final long expiration;
+
+        private CachedValue(V value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+
+    /** Creates an empty cache.
+     *
+     * @param maxEntries Maximum number of entries kept.
+     * @param timeToLive Time, in milliseconds, an entry is kept after it is added.
+     */
+    public LruCache(int maxEntries, long timeToLive) {
+        setLimits(maxEntries, timeToLive);
+    }
+
+    /** Changes the size and age limits of the cache. The least recently used entries beyond the new size limit are
+     * evicted, and entries already cached keep their original expiration.
+     *
+     * @param maxEntries Maximum number of entries kept (0 to disable the cache).
+     * @param timeToLive Time, in milliseconds, an entry is kept after it is added.
+     */
+    public synchronized void setLimits(int maxEntries, long timeToLive) {
+        this.maxEntries = Math.max(maxEntries, 0);
+        this.timeToLive = timeToLive;
+        // Adding an entry only evicts one, so the entries beyond a lower limit are evicted here
+        Iterator<K> eldest = entries.keySet().iterator();
+        while (entries.size() > this.maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /** Returns the value cached for a key, if it has not expired, and marks it as the most recently used.
+     *
+     * @param key Key of the value.
+     * @return The cached value, or null if there is none.
+     */
+    public synchronized V get(K key) {
+        CachedValue<V> entry = entries.get(key);
+        if (entry != null && entry.expiration <= System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /** Adds a value to the cache, replacing any value cached for the same key.
+     *
+     * @param key   Key of the value.
+     * @param value Value to be cached.
+     */
+    public synchronized void put(K key, V value) {
+        if (maxEntries > 0)
+            entries.put(key, new CachedValue<>(value, System.currentTimeMillis() + timeToLive));
+    }
+
+    /** Removes all entries. The hit and miss counters are kept. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%d entries, %d hits, %d misses (%.1f%% hit rate)", entries.size(), hits, misses,
+                lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+    }
+}
@@ -0,0 +1,132 @@
+package ca.ubc.cs317.dict.util;
+
+import java.util.*;
+
+/**
+ * A local index of the results of prefix MATCH requests, used to answer requests for longer prefixes without asking
+ * the server again. The words matching a prefix are a subset of the words matching any shorter prefix, so once the
+ * complete list of matches for "serv" is known, the matches for "serve" are the words in that list that start with
+ * "serve". Words are compared after normalization (lower case, letters, digits and spaces only), as DICT servers do
+ * for the prefix strategy.
+ *
+ * Each list is kept sorted by normalized word, so that the words starting with a longer prefix are found with a
+ * binary search, and are then returned in the order the server sent them. Lists are keyed by database and prefix,
+ * and are evicted by age and size like the other cached results.
+ */
+public class PrefixIndex {
+
+    private LruCache<List<String>, SortedMatches> lists;
+    private long hits = 0;
+
+    /** The matches of a prefix: the words as sent by the server, and their normalized forms sorted. */
+    private static class SortedMatches {
+        private final String[] words;
+        private final String[] sortedKeys;
+        private final int[] sortedPositions;
+
+        private SortedMatches(Collection<String> matches) {
+            words = matches.toArray(new String[matches.size()]);
+            Integer[] order = new Integer[words.length];
+            String[] keys = new String[words.length];
+            for (int i = 0; i < words.length; i++) {
+                order[i] = i;
+                keys[i] = normalize(words[i]);
+            }
+            Arrays.sort(order, Comparator.comparing(i -> keys[i]));
+            sortedKeys = new String[words.length];
+            sortedPositions = new int[words.length];
+            for (int i = 0; i < words.length; i++) {
+                sortedKeys[i] = keys[order[i]];
+                sortedPositions[i] = order[i];
+            }
+        }
+
+        /** Returns the words whose normalized form starts with a (normalized) prefix, in their original order. */
+        private Set<String> startingWith(String prefix) {
+            // First key not lower than the prefix (keys may repeat, so Arrays.binarySearch won't do)
+            int first = 0, end = sortedKeys.length;
+            while (first < end) {
+                int middle = (first + end) >>> 1;
+                if (sortedKeys[middle].compareTo(prefix) < 0) first = middle + 1;
+                else end = middle;
+            }
+            int last = first;
+            while (last < sortedKeys.length && sortedKeys[last].startsWith(prefix)) last++;
+
+            int[] positions = Arrays.copyOfRange(sortedPositions, first, last);
+            Arrays.sort(positions);
+            Set<String> result = new LinkedHashSet<>();
+            for (int position : positions)
+                result.add(words[position]);
+            return result;
+        }
+    }
+
+    /** Creates an empty index.
+     *
+     * @param maxEntries Maximum number of lists of matches kept.
+     * @param timeToLive Time, in milliseconds, a list is kept after it is added.
+     */
+    public PrefixIndex(int maxEntries, long timeToLive) {
+        lists = new LruCache<>(maxEntries, timeToLive);
+    }
+
+    /** Changes the size and age limits of the index.
+     *
+     * @see LruCache#setLimits(int, long)
+     */
+    public void setLimits(int maxEntries, long timeToLive) {
+        lists.setLimits(maxEntries, timeToLive);
+    }
+
+    /** Adds the complete list of words matching a prefix. Lists that may have been truncated by the server must not be
+     * added, since words missing from them would also be missing from the matches of longer prefixes.
+     *
+     * @param database Name of the database the matches were obtained from.
+     * @param prefix   The prefix that was matched.
+     * @param matches  All words matching the prefix, in the order sent by the server.
+     */
+    public void add(String database, String prefix, Collection<String> matches) {
+        String key = normalize(prefix);
+        if (!key.isEmpty())
+            lists.put(Arrays.asList(database, key), new SortedMatches(matches));
+    }
+
+    /** Returns the words matching a prefix, if they can be obtained from the list of a shorter (or the same) prefix.
+     *
+     * @param database Name of the database to be matched.
+     * @param prefix   The prefix to be matched.
+     * @return The words matching the prefix, or null if no list of a shorter prefix is available.
+     */
+    public Set<String> narrow(String database, String prefix) {
+        String key = normalize(prefix);
+        for (int length = key.length(); length > 0; length--) {
+            SortedMatches matches = lists.get(Arrays.asList(database, key.substring(0, length)));
+            if (matches != null) {
+                synchronized (this) {
+                    hits++;
+                }
+                return matches.startingWith(key);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the number of requests answered from the index. */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Normalizes a word the way DICT servers do before matching: lower case, keeping only letters, digits and
+     * spaces.
+     */
+    static String normalize(String word) {
+        StringBuilder normalized = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetterOrDigit(c) || Character.isWhitespace(c))
+                normalized.append(Character.toLowerCase(c));
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package ca.ubc.cs317.dict.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of ResponseReader: line splitting, status codes, and the text of definitions, whose lines starting with a
+ * period are sent with an extra period (dot-stuffing, RFC 2229 section 2.4.3).
+ */
+public class ResponseReaderTest {
+
+    private static final String REPLY = "151 \"apple\" wn \"WordNet\"\r\n" +
+            "apple\r\n" +
+            "..5 is a number\r\n" +
+            "...\r\n" +
+            ".\r\n" +
+            "250 ok\r\n";
+
+    public static void main(String[] args) throws IOException {
+        blockingReader();
+        bufferedReader();
+        longLines();
+        System.out.println("ResponseReaderTest: all tests passed");
+    }
+
+    private static void blockingReader() throws IOException {
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(REPLY.getBytes(StandardCharsets.UTF_8)));
+        check(reader.nextLine() && reader.getStatusCode() == 151, "the status line is read");
+        check(reader.getAtom(1).equals("apple") && reader.getAtom(2).equals("wn"), "atoms are unquoted");
+        check(readText(reader).equals(Arrays.asList("apple", ".5 is a number", "..")), "stuffed periods are removed");
+        check(reader.nextLine() && reader.getStatusCode() == 250, "the reply ends with its status");
+        check(!reader.nextLine(), "the end of the stream is reported");
+    }
+
+    /** The reply arrives a few bytes at a time, so lines (and the CRLF) are split across reads. */
+    private static void bufferedReader() throws IOException {
+        ResponseReader reader = new ResponseReader();
+        ReadableByteChannel channel = new ChunkedChannel(REPLY.getBytes(StandardCharsets.UTF_8), 3);
+        List<String> lines = new ArrayList<>();
+        while (reader.read(channel) >= 0)
+            while (reader.nextBufferedLine())
+                lines.add(reader.isTerminator() ? "<end>" : reader.getText());
+        check(lines.equals(Arrays.asList("151 \"apple\" wn \"WordNet\"", "apple", ".5 is a number", "..", "<end>",
+                "250 ok")), "complete lines are returned once, got " + lines);
+    }
+
+    private static void longLines() throws IOException {
+        char[] characters = new char[20000];
+        Arrays.fill(characters, 'x');
+        String text = "." + new String(characters);
+        String line = "." + text;
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream((line + "\r\n.\r\n")
+                .getBytes(StandardCharsets.UTF_8)));
+        check(reader.nextLine() && reader.getText().equals(text), "lines longer than the buffer are read");
+        check(reader.nextLine() && reader.isTerminator(), "the terminator follows");
+
+        ResponseReader buffered = new ResponseReader();
+        ReadableByteChannel channel = new ChunkedChannel((line + "\r\n").getBytes(StandardCharsets.UTF_8), 5000);
+        boolean found = false;
+        while (!found && buffered.read(channel) >= 0)
+            found = buffered.nextBufferedLine();
+        check(found && buffered.getText().equals(text), "the buffer grows for long lines");
+    }
+
+    private static List<String> readText(ResponseReader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        while (reader.nextLine() && !reader.isTerminator())
+            lines.add(reader.getText());
+        return lines;
+    }
+
+    /** A channel returning its data in small pieces, as a non-blocking socket may. */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private final int chunk;
+        private int position = 0;
+
+        private ChunkedChannel(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (position == data.length) return -1;
+            int count = Math.min(Math.min(chunk, destination.remaining()), data.length - position);
+            destination.put(data, position, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
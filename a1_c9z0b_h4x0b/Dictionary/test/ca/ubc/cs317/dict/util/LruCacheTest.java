@@ -0,0 +1,57 @@
+package ca.ubc.cs317.dict.util;
+
+/** Tests of the eviction of entries from LruCache, by size and by age. */
+public class LruCacheTest {
+
+    public static void main(String[] args) throws InterruptedException {
+        leastRecentlyUsedEvicted();
+        expiredEntriesDropped();
+        limitsChanged();
+        System.out.println("LruCacheTest: all tests passed");
+    }
+
+    private static void leastRecentlyUsedEvicted() {
+        LruCache<String, Integer> cache = new LruCache<>(3, 60000);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        check(cache.get("a") == 1, "a is cached");
+        cache.put("d", 4);
+        check(cache.size() == 3, "the size is bounded, got " + cache.size());
+        check(cache.get("b") == null, "the least recently used entry is evicted");
+        check(cache.get("a") == 1 && cache.get("c") == 3 && cache.get("d") == 4, "the other entries are kept");
+        cache.put("a", 5);
+        cache.put("e", 6);
+        check(cache.get("a") == 5 && cache.get("c") == null, "replacing an entry makes it recently used");
+        check(cache.getHits() == 5 && cache.getMisses() == 2, "hits and misses are counted, got "
+                + cache.getHits() + "/" + cache.getMisses());
+    }
+
+    private static void expiredEntriesDropped() throws InterruptedException {
+        LruCache<String, Integer> cache = new LruCache<>(10, 50);
+        cache.put("a", 1);
+        check(cache.get("a") == 1, "a fresh entry is returned");
+        Thread.sleep(100);
+        check(cache.get("a") == null && cache.size() == 0, "an expired entry is dropped when requested");
+    }
+
+    private static void limitsChanged() {
+        LruCache<String, Integer> cache = new LruCache<>(3, 60000);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        check(cache.get("a") == 1, "a is cached");
+        cache.setLimits(1, 60000);
+        check(cache.size() == 1 && cache.get("a") == 1, "a smaller limit keeps the most recently used entries");
+        cache.setLimits(2, 60000);
+        cache.put("d", 4);
+        check(cache.size() == 2 && cache.get("a") == 1 && cache.get("d") == 4, "the new limit applies to new entries");
+        cache.setLimits(0, 60000);
+        cache.put("e", 5);
+        check(cache.size() == 0 && cache.get("e") == null, "a limit of 0 disables the cache");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
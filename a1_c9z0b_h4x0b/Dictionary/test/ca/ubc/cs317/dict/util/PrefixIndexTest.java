@@ -0,0 +1,70 @@
+package ca.ubc.cs317.dict.util;
+
+import java.util.*;
+
+/** Tests of the narrowing of prefix matches by PrefixIndex. */
+public class PrefixIndexTest {
+
+    public static void main(String[] args) {
+        caseAndPunctuationIgnored();
+        duplicateKeysNarrowed();
+        serverOrderPreserved();
+        noShorterListReturnsNull();
+        System.out.println("PrefixIndexTest: all tests passed");
+    }
+
+    private static void caseAndPunctuationIgnored() {
+        PrefixIndex index = new PrefixIndex(10, 60000);
+        index.add("wn", "Serv", Arrays.asList("Server", "serve", "Serv-ice", "Servile", "Serve-Out"));
+        check(words(index.narrow("wn", "SER.VE")).equals(Arrays.asList("Server", "serve", "Serve-Out")),
+                "case and punctuation are ignored in the prefix and the words, got " + index.narrow("wn", "SER.VE"));
+        check(words(index.narrow("wn", "serv")).size() == 5, "the list of the same prefix is returned whole");
+        check(words(index.narrow("wn", "servi")).equals(Arrays.asList("Serv-ice", "Servile")),
+                "a punctuated word matches by its normalized form");
+        check(index.narrow("wn", "servz").isEmpty(), "a prefix after every word matches nothing, but not null");
+    }
+
+    private static void duplicateKeysNarrowed() {
+        PrefixIndex index = new PrefixIndex(10, 60000);
+        index.add("*", "ap", Arrays.asList("ap", "ape", "apple", "Apple", "apex", "APPLE", "ap-ple", "apply", "apple"));
+        check(words(index.narrow("*", "appl")).equals(Arrays.asList("apple", "Apple", "APPLE", "ap-ple", "apply")),
+                "words with the same normalized form are all found, got " + index.narrow("*", "appl"));
+        check(words(index.narrow("*", "apple")).equals(Arrays.asList("apple", "Apple", "APPLE", "ap-ple")),
+                "a prefix equal to repeated keys finds every one of them");
+        check(words(index.narrow("*", "ape")).equals(Arrays.asList("ape", "apex")),
+                "the keys just before the repeats are found");
+    }
+
+    private static void serverOrderPreserved() {
+        PrefixIndex index = new PrefixIndex(10, 60000);
+        index.add("gcide", "z", Arrays.asList("zygote", "Zeta", "zany", "zeal", "Zebra", "zest"));
+        check(words(index.narrow("gcide", "ze")).equals(Arrays.asList("Zeta", "zeal", "Zebra", "zest")),
+                "words are returned in the order sent by the server, got " + index.narrow("gcide", "ze"));
+        List<String> all = Arrays.asList("zygote", "Zeta", "zany", "zeal", "Zebra", "zest");
+        check(words(index.narrow("gcide", "z")).equals(all), "the order of the whole list is kept");
+    }
+
+    private static void noShorterListReturnsNull() {
+        PrefixIndex index = new PrefixIndex(10, 60000);
+        index.add("wn", "ban", Arrays.asList("banana", "band"));
+        check(index.narrow("wn", "ba") == null, "a shorter prefix than any list is not answered");
+        check(index.narrow("wn", "cat") == null, "an unrelated prefix is not answered");
+        check(index.narrow("gcide", "bana") == null, "lists of another database are not used");
+        check(index.narrow("wn", "-") == null, "a prefix without letters or digits is not answered");
+        index.add("wn", "--", Arrays.asList("a", "b"));
+        check(index.narrow("wn", "a") == null, "a prefix without letters or digits is not added");
+        check(index.getHits() == 0, "requests that are not answered are not hits, got " + index.getHits());
+        check(words(index.narrow("wn", "bana")).equals(Arrays.asList("banana")), "a longer prefix is answered");
+        check(index.getHits() == 1, "answered requests are hits, got " + index.getHits());
+        index.setLimits(0, 60000);
+        check(index.narrow("wn", "bana") == null, "a limit of 0 disables the index");
+    }
+
+    private static List<String> words(Set<String> matches) {
+        return matches == null ? null : new ArrayList<>(matches);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
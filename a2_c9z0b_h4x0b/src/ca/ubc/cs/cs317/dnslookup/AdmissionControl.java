@@ -0,0 +1,263 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Decides whether queries from clients are served, so that a single misbehaving client (e.g.,
+ * one sending queries for random subdomains of a zone) cannot exhaust the upstream capacity of
+ * the resolver. Three limits are applied:
+ * <ul>
+ *     <li>A token bucket per client prefix (/24 for IPv4, /48 for IPv6), applied to every query.
+ *     Queries over this limit are refused.</li>
+ *     <li>A token bucket per queried zone (the host name without its first label), applied only
+ *     to queries that cannot be answered from the cache. Queries over this limit are refused.</li>
+ *     <li>A bound on the number of outstanding iterative resolutions, with a bounded queue of
+ *     resolutions waiting for a slot. Queries that find the queue full, or that wait longer than
+ *     the queue timeout, fail immediately (SERVFAIL) instead of adding to the latency of others.</li>
+ * </ul>
+ * All limits are disabled (unlimited) by default.
+ */
+public class AdmissionControl {
+
+    public enum Decision {ADMITTED, REFUSED, SERVFAIL}
+
+    /** Thrown when a query is not admitted. */
+    public static class RejectedException extends Exception {
+
+        private Decision decision;
+
+        public RejectedException(Decision decision, String message) {
+            super(message);
+            this.decision = decision;
+        }
+
+        public Decision getDecision() {
+            return decision;
+        }
+    }
+
+    private static final int MAX_BUCKETS = 100000;
+    private static final long SWEEP_INTERVAL = 1000000000L;
+
+    // The buckets of each limit, or null if the limit is disabled
+    private volatile Buckets clientBuckets = null;
+    private volatile Buckets zoneBuckets = null;
+
+    private int maxResolutions = Integer.MAX_VALUE;
+    private int maxQueued = 0;
+    private long queueTimeout = 0;
+    private int outstanding = 0;
+    private int queued = 0;
+
+    private AtomicLong admitted = new AtomicLong();
+    private AtomicLong refusedClient = new AtomicLong();
+    private AtomicLong refusedZone = new AtomicLong();
+    private AtomicLong saturated = new AtomicLong();
+
+    /** Sets the rate limit applied to each client prefix.
+     *
+     * @param rate  Sustained number of queries per second allowed; zero or less disables the limit.
+     * @param burst Number of queries allowed in a burst above the sustained rate.
+     */
+    public void setClientLimit(double rate, double burst) {
+        clientBuckets = rate > 0 ? new Buckets(rate, Math.max(burst, 1)) : null;
+    }
+
+    /** Sets the rate limit applied to the resolution of names in each zone.
+     *
+     * @param rate  Sustained number of resolutions per second allowed; zero or less disables the limit.
+     * @param burst Number of resolutions allowed in a burst above the sustained rate.
+     */
+    public void setZoneLimit(double rate, double burst) {
+        zoneBuckets = rate > 0 ? new Buckets(rate, Math.max(burst, 1)) : null;
+    }
+
+    /** Sets the bound on outstanding iterative resolutions.
+     *
+     * @param maxResolutions Maximum number of resolutions in progress at once.
+     * @param maxQueued      Maximum number of resolutions waiting for a slot.
+     * @param queueTimeout   Maximum time, in milliseconds, a resolution waits for a slot.
+     */
+    public synchronized void setResolutionLimit(int maxResolutions, int maxQueued, long queueTimeout) {
+        this.maxResolutions = maxResolutions <= 0 ? Integer.MAX_VALUE : maxResolutions;
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.queueTimeout = Math.max(queueTimeout, 0);
+        notifyAll();
+    }
+
+    /** Disables all limits. */
+    public void disable() {
+        setClientLimit(0, 0);
+        setZoneLimit(0, 0);
+        setResolutionLimit(0, 0, 0);
+    }
+
+    /** Checks the rate limit of the client sending a query. Must be called for every query.
+     *
+     * @param client Address of the client, or null for local queries, which are never limited.
+     * @throws RejectedException If the client exceeded its rate limit.
+     */
+    public void admitQuery(InetAddress client) throws RejectedException {
+        Buckets buckets = clientBuckets;
+        if (client != null && buckets != null && !buckets.get(clientPrefix(client)).tryAcquire()) {
+            refusedClient.incrementAndGet();
+            throw new RejectedException(Decision.REFUSED, "Rate limit exceeded for client " + client.getHostAddress());
+        }
+        admitted.incrementAndGet();
+    }
+
+    /** Reserves a slot for an iterative resolution, waiting in the queue if all slots are in use.
+     * If this method returns normally, endResolution() must be called once the resolution completes.
+     *
+     * @param hostName Host name being resolved.
+     * @throws RejectedException If the zone exceeded its rate limit, or no slot became available.
+     */
+    public void beginResolution(String hostName) throws RejectedException {
+        Buckets buckets = zoneBuckets;
+        if (buckets != null && !buckets.get(zoneOf(hostName)).tryAcquire()) {
+            refusedZone.incrementAndGet();
+            throw new RejectedException(Decision.REFUSED, "Rate limit exceeded for zone " + zoneOf(hostName));
+        }
+        if (!acquireSlot()) {
+            saturated.incrementAndGet();
+            throw new RejectedException(Decision.SERVFAIL, "Too many outstanding resolutions");
+        }
+    }
+
+    /** Releases the slot reserved by a successful call to beginResolution(). */
+    public synchronized void endResolution() {
+        outstanding--;
+        notifyAll();
+    }
+
+    private synchronized boolean acquireSlot() {
+        if (outstanding < maxResolutions) {
+            outstanding++;
+            return true;
+        }
+        if (queued >= maxQueued) return false;
+
+        queued++;
+        try {
+            long deadline = System.currentTimeMillis() + queueTimeout;
+            long remaining;
+            while (outstanding >= maxResolutions) {
+                if ((remaining = deadline - System.currentTimeMillis()) <= 0) return false;
+                wait(remaining);
+            }
+            outstanding++;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queued--;
+        }
+    }
+
+    /** Returns the prefix used to group clients: /24 for IPv4 addresses and /48 for IPv6 addresses. */
+    static String clientPrefix(InetAddress client) {
+        byte[] address = client.getAddress();
+        StringBuilder prefix = new StringBuilder();
+        if (address.length == 4) {
+            for (int i = 0; i < 3; i++)
+                prefix.append(address[i] & 0xFF).append('.');
+            return prefix.append("0/24").toString();
+        }
+        for (int i = 0; i < 6; i++) {
+            prefix.append(String.format("%02x", address[i]));
+            if (i % 2 == 1) prefix.append(':');
+        }
+        return prefix.append(":/48").toString();
+    }
+
+    /** Returns the zone a host name is counted against: the name without its first label, so
+     * that queries for random subdomains of a zone all share the same limit.
+     */
+    static String zoneOf(String hostName) {
+        String name = hostName.toLowerCase();
+        int dot = name.indexOf('.');
+        return dot < 0 || name.indexOf('.', dot + 1) < 0 ? name : name.substring(dot + 1);
+    }
+
+    /** Prints the number of queries admitted and rejected for each reason. */
+    public void printStatistics(PrintStream out) {
+        out.printf("Admitted %d queries; refused %d (client limit), %d (zone limit); %d failed (saturated)\n",
+                admitted.get(), refusedClient.get(), refusedZone.get(), saturated.get());
+        synchronized (this) {
+            out.printf("Outstanding resolutions: %d (limit %s), queued: %d (limit %d)\n", outstanding,
+                    maxResolutions == Integer.MAX_VALUE ? "none" : Integer.toString(maxResolutions),
+                    queued, maxQueued);
+        }
+    }
+
+    /** The token buckets of a limit, by client prefix or zone. The number of buckets is bounded
+     * (up to a few concurrent insertions): once MAX_BUCKETS keys are tracked, idle buckets (full
+     * again) are removed, but at most once per SWEEP_INTERVAL so that a flood of new keys does
+     * not scan the map on every query. New keys that find no room share a single overflow
+     * bucket until a sweep frees some.
+     */
+    private static class Buckets {
+
+        private final double rate;
+        private final double burst;
+        private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final TokenBucket overflow;
+        private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+        Buckets(double rate, double burst) {
+            this.rate = rate;
+            this.burst = burst;
+            this.overflow = new TokenBucket(rate, burst);
+        }
+
+        TokenBucket get(String key) {
+            TokenBucket bucket = buckets.get(key);
+            if (bucket != null) return bucket;
+            if (buckets.size() >= MAX_BUCKETS) {
+                long now = System.nanoTime();
+                long sweep = nextSweep.get();
+                if (now - sweep >= 0 && nextSweep.compareAndSet(sweep, now + SWEEP_INTERVAL))
+                    buckets.values().removeIf(TokenBucket::isFull);
+                if (buckets.size() >= MAX_BUCKETS) return overflow;
+            }
+            return buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst));
+        }
+    }
+
+    /** A token bucket, refilled continuously at a fixed rate up to its capacity. */
+    private static class TokenBucket {
+
+        private double rate;
+        private double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double rate, double capacity) {
+            this.rate = rate;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * rate);
+            lastRefill = now;
+        }
+    }
+}
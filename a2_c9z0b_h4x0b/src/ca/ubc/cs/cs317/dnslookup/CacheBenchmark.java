@@ -0,0 +1,102 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Compares garbage collection pauses of the DNS cache with records kept on the heap and off the
+ * heap. The cache is filled with a number of records, after which random lookups are performed
+ * for a period of time, together with a steady allocation of short-lived objects (as a resolver
+ * does when parsing responses), and every GC pause is recorded. Run once for each mode, with the
+ * same heap settings, e.g.:
+ * <pre>
+ *     java -Xmx3g -cp bin ca.ubc.cs.cs317.dnslookup.CacheBenchmark heap 5000000 30
+ *     java -Xmx3g -cp bin ca.ubc.cs.cs317.dnslookup.CacheBenchmark offheap 5000000 30
+ * </pre>
+ */
+public class CacheBenchmark {
+
+    private static List<Long> pauses = new ArrayList<>();
+
+    public static void main(String[] args) {
+
+        if (args.length < 1 || (!args[0].equals("heap") && !args[0].equals("offheap"))) {
+            System.err.println("Invalid call. Usage:");
+            System.err.println("\tjava ca.ubc.cs.cs317.dnslookup.CacheBenchmark heap|offheap [records [seconds]]");
+            System.exit(1);
+        }
+        boolean offHeap = args[0].equals("offheap");
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        listenForPauses();
+        DNSCache cache = new DNSCache(offHeap);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            cache.addResult(new ResourceRecord(hostName(i), RecordType.A, 3600 + i % 3600,
+                    "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF)));
+        }
+        double fillTime = (System.nanoTime() - start) / 1e9;
+        printPauses("Fill (" + records + " records, " + String.format("%.1f s", fillTime) + ")");
+
+        Random random = new Random(317);
+        long lookups = 0, found = 0, deadline = System.nanoTime() + seconds * 1000000000L;
+        byte[][] garbage = new byte[1024][];
+        start = System.nanoTime();
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                if (!cache.getCachedResults(new DNSNode(hostName(random.nextInt(records)), RecordType.A)).isEmpty())
+                    found++;
+                garbage[random.nextInt(garbage.length)] = new byte[512];
+            }
+            lookups += 1000;
+        }
+        double lookupTime = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Lookups: %d (%.0f per second, %d found)\n", lookups, lookups / lookupTime, found);
+        printPauses("Lookups");
+
+        start = System.nanoTime();
+        System.gc();
+        System.out.printf("Full collection: %.1f ms\n", (System.nanoTime() - start) / 1e6);
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Heap used after collection: %.1f MB\n", (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0);
+    }
+
+    private static String hostName(int i) {
+        return "host" + i + ".bench.example.com";
+    }
+
+    /** Records the duration of each collection, using the notifications sent by each collector. */
+    private static void listenForPauses() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                    return;
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                synchronized (pauses) {
+                    pauses.add(info.getGcInfo().getDuration());
+                }
+            }, null, null);
+    }
+
+    /** Prints the number, total and maximum duration of the pauses recorded since the last call. */
+    private static void printPauses(String phase) {
+        synchronized (pauses) {
+            long total = 0, max = 0;
+            for (long pause : pauses) {
+                total += pause;
+                max = Math.max(max, pause);
+            }
+            System.out.printf("%s: %d collections, %d ms total, %d ms max\n", phase, pauses.size(), total, max);
+            pauses.clear();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/** Writes snapshots of the DNS cache (obtained with DNSCache.snapshot()) in text or binary form.
+ * Records that expired after the snapshot was taken are skipped.
+ *
+ * The text format uses the same layout as the results printed by the lookup command. The binary
+ * format starts with a magic number and a version, followed by one entry per record, each
+ * preceded by a non-zero byte, and a final zero byte. Each entry contains the host name, the
+ * record type code, the expiration time (in milliseconds since the epoch), the textual result
+ * and the raw address (if any, preceded by its length).
+ */
+public class CacheExporter {
+
+    public static final int BINARY_MAGIC = 0x444E5343; // "DNSC"
+    public static final short BINARY_VERSION = 1;
+
+    /** Prints all valid records of a snapshot in text form.
+     *
+     * @param snapshot Records obtained from DNSCache.snapshot().
+     * @param out      Stream where records are printed.
+     * @return The number of records printed.
+     */
+    public static int writeText(List<ResourceRecord> snapshot, PrintStream out) {
+        int count = 0;
+        for (ResourceRecord record : snapshot) {
+            if (!record.isStillValid()) continue;
+            out.printf("%-30s %-5s %-8d %s\n", record.getHostName(), record.getType(),
+                    record.getTTL(), record.getTextResult());
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+
+    /** Writes all valid records of a snapshot in binary form.
+     *
+     * @param snapshot Records obtained from DNSCache.snapshot().
+     * @param out      Stream where records are written.
+     * @return The number of records written.
+     * @throws IOException If the records could not be written.
+     */
+    public static int writeBinary(List<ResourceRecord> snapshot, OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(BINARY_MAGIC);
+        dos.writeShort(BINARY_VERSION);
+
+        int count = 0;
+        for (ResourceRecord record : snapshot) {
+            if (!record.isStillValid()) continue;
+            dos.writeByte(1);
+            dos.writeUTF(record.getHostName());
+            dos.writeShort(record.getType().getCode());
+            dos.writeLong(record.getExpirationTime());
+            dos.writeUTF(record.getTextResult());
+            byte[] address = record.getInetResult() == null ? new byte[0] : record.getInetResult().getAddress();
+            dos.writeByte(address.length);
+            dos.write(address);
+            count++;
+        }
+        dos.writeByte(0);
+        dos.flush();
+        return count;
+    }
+}
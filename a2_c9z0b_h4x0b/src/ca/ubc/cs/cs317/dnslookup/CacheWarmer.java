@@ -0,0 +1,124 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Warms the cache by resolving a list of names before they are queried, so that a resolver that
+ * was just started does not answer its most common queries with a full iterative resolution.
+ * Names are resolved through the normal lookup path, so the delegations followed on the way are
+ * cached as well. Each line of the list has one of the formats:
+ * <pre>
+ *     hostName [type]
+ *     timestamp hostName [type [client]]
+ * </pre>
+ * The first is a ranked list of names, such as the one written by the 'top' command, the second
+ * is a query log, as used by QueryReplay. Names that appear several times are resolved once, in
+ * order of decreasing number of occurrences (names with the same number of occurrences are kept
+ * in the order of the file). Lines starting with '#' are ignored. Warm-up lookups are not counted
+ * in the cache statistics.
+ */
+public class CacheWarmer {
+
+    private int parallelism;
+
+    /** Creates a new warm-up session.
+     *
+     * @param parallelism Maximum number of names resolved concurrently.
+     */
+    public CacheWarmer(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    /** Resolves all names in a file, and prints the time taken and the coverage achieved: the
+     * fraction of names (and of occurrences of names in the file) for which results were found.
+     *
+     * @param fileName Name of the file with the names to be resolved.
+     * @param out      Stream where the report is printed.
+     * @throws IOException If the file could not be read.
+     */
+    public void run(String fileName, PrintStream out) throws IOException {
+
+        Map<DNSNode, Integer> occurrences = readNames(fileName, out);
+        List<Map.Entry<DNSNode, Integer>> ranked = new ArrayList<>(occurrences.entrySet());
+        ranked.sort(Map.Entry.<DNSNode, Integer>comparingByValue().reversed());
+
+        long upstreamAtStart = DNSLookupService.getUpstreamQueryCount();
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "dns-warmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Boolean>> results = new ArrayList<>(ranked.size());
+        for (Map.Entry<DNSNode, Integer> entry : ranked)
+            results.add(executor.submit(() -> !DNSLookupService.prefetch(entry.getKey()).isEmpty()));
+
+        int names = 0, total = 0;
+        long covered = 0, weight = 0;
+        try {
+            for (int i = 0; i < ranked.size(); i++) {
+                int count = ranked.get(i).getValue();
+                weight += count;
+                total++;
+                try {
+                    if (results.get(i).get()) {
+                        names++;
+                        covered += count;
+                    }
+                } catch (ExecutionException e) {
+                    // The name could not be resolved; it counts against the coverage
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        out.printf("Warmed %d of %d names (%.1f%%, covering %.1f%% of occurrences) in %.3f s using %d upstream queries\n",
+                names, total, total == 0 ? 0.0 : 100.0 * names / total, weight == 0 ? 0.0 : 100.0 * covered / weight,
+                (System.nanoTime() - start) / 1e9, DNSLookupService.getUpstreamQueryCount() - upstreamAtStart);
+    }
+
+    /** Reads the names in a file and counts how often each appears, keeping the order of the first
+     * occurrence of each name.
+     */
+    private static Map<DNSNode, Integer> readNames(String fileName, PrintStream out) throws IOException {
+
+        Map<DNSNode, Integer> occurrences = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] fields = line.split("\\s+");
+                int index = 0;
+                if (fields.length > 1 && isTimestamp(fields[0])) index = 1;
+                try {
+                    RecordType type = fields.length > index + 1 ?
+                            RecordType.valueOf(fields[index + 1].toUpperCase()) : RecordType.A;
+                    occurrences.merge(new DNSNode(fields[index], type), 1, Integer::sum);
+                } catch (IllegalArgumentException ex) {
+                    out.println("Skipping invalid line " + lineNumber + ": " + line);
+                }
+            }
+        }
+        return occurrences;
+    }
+
+    private static boolean isTimestamp(String field) {
+        try {
+            Double.parseDouble(field);
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+}
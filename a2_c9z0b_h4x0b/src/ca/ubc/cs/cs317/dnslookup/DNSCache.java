@@ -1,18 +1,65 @@
 package ca.ubc.cs.cs317.dnslookup;
 
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.function.BiConsumer;
 
 /** This class handles a cache of DNS results. It is based on a map that links nodes (queries)
  * to a set of resource records (results). Cached results are only maintained for the duration
  * of the TTL (time-to-live) returned by the server, and are deleted before being returned to
- * the user.
+ * the user. The cache may be used by several concurrent lookups; all accesses are synchronized.
+ *
+ * If the system property dnslookup.offheap is set to true, cached records are kept outside of
+ * the Java heap, in an OffHeapRecordStore, and records are only created as objects when they are
+ * returned. This reduces garbage collection pauses for very large caches, at the cost of
+ * decoding records on each access.
+ *
+ * The cache also keeps analytics on what it costs to answer queries: the number of cache hits of
+ * the most popular queries, and the number of misses, upstream queries and upstream round-trip
+ * time of the most expensive zones. These are kept in fixed-size HeavyHitters sketches with their
+ * own locks, so recording them costs a few counter updates and never contends with the cache.
  */
 public class DNSCache {
 
-    private static DNSCache instance = new DNSCache();
+    private static DNSCache instance = new DNSCache(Boolean.getBoolean("dnslookup.offheap"));
 
     private Map<DNSNode, Map<ResourceRecord, ResourceRecord>> cachedResults = new TreeMap<>();
+    private Map<DNSNode, FlattenedChain> flattenedChains = new TreeMap<>();
+    private OffHeapRecordStore offHeapStore;
+
+    private static final int SKETCH_WIDTH = 4096;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int TRACKED_KEYS = 100;
+
+    private HeavyHitters<DNSNode> nodeHits = new HeavyHitters<>(SKETCH_WIDTH, SKETCH_DEPTH, TRACKED_KEYS);
+    private HeavyHitters<String> zoneMisses = new HeavyHitters<>(SKETCH_WIDTH, SKETCH_DEPTH, 0);
+    private HeavyHitters<String> zoneQueries = new HeavyHitters<>(SKETCH_WIDTH, SKETCH_DEPTH, 0);
+    private HeavyHitters<String> zoneTime = new HeavyHitters<>(SKETCH_WIDTH, SKETCH_DEPTH, TRACKED_KEYS);
+
+    /** A CNAME chain collapsed into a single entry: the final results of the chain, together with
+     * the record (link or result) that expires first, which determines how long the whole chain
+     * remains valid.
+     */
+    private static class FlattenedChain {
+        private ResourceRecord limit;
+        private Set<ResourceRecord> results;
+
+        private FlattenedChain(ResourceRecord limit, Set<ResourceRecord> results) {
+            this.limit = limit;
+            this.results = results;
+        }
+    }
+
+    /** Creates a cache. Only used to create the singleton instance, and by benchmarks comparing
+     * both storage modes.
+     *
+     * @param offHeap true to keep cached records outside of the Java heap.
+     */
+    DNSCache(boolean offHeap) {
+        if (offHeap)
+            offHeapStore = new OffHeapRecordStore();
+    }
 
     /** Singleton retrieval method. Only one instance of the DNS cache can be created. This
      * method returns the single DNS cache instance.
@@ -29,15 +76,18 @@ public class DNSCache {
      * only returns previously cached results.
      *
      * @param node DNS query (host name and record type) to obtain cached results.
-     * @return A potentially empty set of resources associated to the query.
+     * @return A potentially empty copy of the set of resources associated to the query.
      */
-    public Set<ResourceRecord> getCachedResults(DNSNode node) {
+    public synchronized Set<ResourceRecord> getCachedResults(DNSNode node) {
+        if (offHeapStore != null)
+            return Collections.unmodifiableSet(offHeapStore.get(node));
+
         Map<ResourceRecord, ResourceRecord> results = cachedResults.get(node);
         if (results == null)
             return Collections.emptySet();
 
         results.keySet().removeIf(record -> !record.isStillValid());
-        return Collections.unmodifiableSet(results.keySet());
+        return Collections.unmodifiableSet(new HashSet<>(results.keySet()));
     }
 
     /** Adds a specific resource record to the DNS cache. If the cache already has an equivalent
@@ -47,9 +97,13 @@ public class DNSCache {
      * @param record Resource record, possibly obtained from a DNS server, containing the result
      *               of a DNS query.
      */
-    public void addResult(ResourceRecord record) {
+    public synchronized void addResult(ResourceRecord record) {
 
         if (!record.isStillValid()) return;
+        if (offHeapStore != null) {
+            offHeapStore.add(record);
+            return;
+        }
 
         Map<ResourceRecord, ResourceRecord> results = cachedResults.get(record.getNode());
         if (results == null) {
@@ -58,8 +112,91 @@ public class DNSCache {
         }
 
         ResourceRecord oldRecord = results.get(record);
-        if (oldRecord == null || oldRecord.expiresBefore(record))
+        if (oldRecord == null || oldRecord.expiresBefore(record)) {
+            // Remove first, since put() would keep the existing (equal) key, which is what is returned
+            results.remove(record);
             results.put(record, record);
+        }
+    }
+
+    /** Returns the final results of a previously followed CNAME chain starting at a particular
+     * query, allowing an aliased name to be answered with a single cache probe instead of one
+     * probe per link. If no valid chain is cached for the query, returns an empty set.
+     *
+     * @param node DNS query (host name and record type) at the start of the chain.
+     * @return A potentially empty set of resources found at the end of the chain.
+     */
+    public synchronized Set<ResourceRecord> getFlattenedResults(DNSNode node) {
+        FlattenedChain chain = flattenedChains.get(node);
+        if (chain == null)
+            return Collections.emptySet();
+
+        if (!chain.limit.isStillValid()) {
+            flattenedChains.remove(node);
+            return Collections.emptySet();
+        }
+        return chain.results;
+    }
+
+    /** Caches a flattened CNAME chain. The chain is made of a link from the query to a target
+     * query, followed by the chain previously flattened for the target itself (if any), ending in
+     * the results of the target. The flattened entry expires as soon as any of its links or
+     * results expires.
+     *
+     * @param node    DNS query (host name and record type) at the start of the chain.
+     * @param link    CNAME record linking the query's host name to the target's host name.
+     * @param target  DNS query the link points to.
+     * @param results Results obtained for the target query.
+     */
+    public synchronized void addFlattenedChain(DNSNode node, ResourceRecord link, DNSNode target,
+                                               Set<ResourceRecord> results) {
+
+        if (results.isEmpty()) return;
+
+        ResourceRecord limit = link;
+        FlattenedChain targetChain = flattenedChains.get(target);
+        if (targetChain != null && targetChain.limit.expiresBefore(limit))
+            limit = targetChain.limit;
+        for (ResourceRecord record : results)
+            if (record.expiresBefore(limit))
+                limit = record;
+
+        if (limit.isStillValid())
+            flattenedChains.put(node, new FlattenedChain(limit,
+                    Collections.unmodifiableSet(new HashSet<>(results))));
+    }
+
+    /** Returns a snapshot of all records currently cached, ordered by query. The snapshot only
+     * copies references to the (immutable) records, without removing expired records, so the
+     * cache is locked only for the duration of the copy; it may then be printed or exported
+     * without blocking concurrent lookups. When records are kept off the heap, the raw blocks of
+     * the store are copied while the cache is locked, and records are only created from the copy
+     * after the lock is released. Records may expire after the snapshot is taken, so users of the
+     * snapshot should check isStillValid() on each record.
+     *
+     * @return A list of all cached records, where records of the same query are adjacent (and,
+     *         unless records are kept off the heap, ordered by query).
+     */
+    public List<ResourceRecord> snapshot() {
+        List<ByteBuffer> blocks;
+        synchronized (this) {
+            if (offHeapStore == null) return heapSnapshot();
+            blocks = offHeapStore.copyBlocks();
+        }
+        List<ResourceRecord> records = new ArrayList<>();
+        OffHeapRecordStore.forEachRecord(blocks, (node, record) -> records.add(record));
+        return records;
+    }
+
+    private List<ResourceRecord> heapSnapshot() {
+        int size = 0;
+        for (Map<ResourceRecord, ResourceRecord> results : cachedResults.values())
+            size += results.size();
+
+        List<ResourceRecord> records = new ArrayList<>(size);
+        for (Map<ResourceRecord, ResourceRecord> results : cachedResults.values())
+            records.addAll(results.keySet());
+        return records;
     }
 
     /** Perform a specific action for each query and its set of cached records. This action can
@@ -68,7 +205,17 @@ public class DNSCache {
      *
      * @param consumer Action to be performed for each query and set of records.
      */
-    public void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+    public synchronized void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        if (offHeapStore != null) {
+            // Records of the same query are passed consecutively by the store
+            List<ResourceRecord> records = snapshot();
+            for (int start = 0, end; start < records.size(); start = end) {
+                DNSNode node = records.get(start).getNode();
+                for (end = start + 1; end < records.size() && records.get(end).getNode().equals(node); end++) ;
+                consumer.accept(node, new HashSet<>(records.subList(start, end)));
+            }
+            return;
+        }
         for (Map.Entry<DNSNode, Map<ResourceRecord, ResourceRecord>> entry : cachedResults.entrySet()) {
             entry.getValue().keySet().removeIf(record -> !record.isStillValid());
             if (!entry.getValue().keySet().isEmpty())
@@ -82,11 +229,87 @@ public class DNSCache {
      *
      * @param consumer Action to be performed for each query and record.
      */
-    public void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
+    public synchronized void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
+        if (offHeapStore != null) {
+            offHeapStore.forEachRecord(consumer);
+            return;
+        }
         for (Map.Entry<DNSNode, Map<ResourceRecord, ResourceRecord>> entry : cachedResults.entrySet()) {
             entry.getValue().keySet().removeIf(record -> !record.isStillValid());
             entry.getValue().keySet().forEach(record -> consumer.accept(entry.getKey(), record));
         }
     }
 
+    /** Records that a query was answered from the cache (directly or through a flattened CNAME
+     * chain).
+     *
+     * @param node DNS query (host name and record type) that was answered.
+     */
+    public void recordHit(DNSNode node) {
+        nodeHits.add(node, 1);
+    }
+
+    /** Records that a query could not be answered from the cache. The miss is attributed to the
+     * delegation zone whose servers were queried for the answer, so that it can be compared with
+     * the upstream queries of the same zone.
+     *
+     * @param zone Zone of the delegation the answer was retrieved from.
+     */
+    public void recordMiss(String zone) {
+        zoneMisses.add(zoneKey(zone), 1);
+    }
+
+    /** Records a query sent to a name server, whether or not it was answered.
+     *
+     * @param zone Zone the server was queried for (i.e., the zone of the delegation followed).
+     * @param rtt  Time spent waiting for the server, in milliseconds.
+     */
+    public void recordUpstreamQuery(String zone, long rtt) {
+        String key = zoneKey(zone);
+        zoneQueries.add(key, 1);
+        zoneTime.add(key, rtt);
+    }
+
+    private static String zoneKey(String zone) {
+        return zone.isEmpty() ? "." : zone.toLowerCase();
+    }
+
+    /** Returns the most popular queries answered from the cache, most hits first.
+     *
+     * @param n Maximum number of queries returned.
+     * @return A potentially empty list of queries and their estimated number of hits.
+     */
+    public List<Map.Entry<DNSNode, Long>> getHottestNodes(int n) {
+        return nodeHits.top(n);
+    }
+
+    /** Prints the most popular queries and the most expensive zones, i.e., those where most time
+     * was spent waiting for name servers. All numbers are estimates, which may be slightly high.
+     *
+     * @param out Stream where the tables are printed.
+     * @param n   Maximum number of queries and zones printed.
+     */
+    public void printStatistics(PrintStream out, int n) {
+        long hits = nodeHits.getTotal(), misses = zoneMisses.getTotal();
+        out.printf("Cache hits: %d, misses: %d (%.1f%% hit rate)\n", hits, misses,
+                hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses));
+        out.printf("Hottest names:\n  %10s  %s\n", "hits", "query");
+        for (Map.Entry<DNSNode, Long> entry : nodeHits.top(n))
+            out.printf("  %10d  %s %s\n", entry.getValue(), entry.getKey().getHostName(), entry.getKey().getType());
+        out.printf("Most expensive zones:\n  %10s  %8s  %8s  %8s  %s\n", "time (ms)", "queries", "avg rtt", "misses", "zone");
+        for (Map.Entry<String, Long> entry : zoneTime.top(n)) {
+            long queries = zoneQueries.estimate(entry.getKey());
+            out.printf("  %10d  %8d  %8d  %8d  %s\n", entry.getValue(), queries,
+                    queries == 0 ? 0 : entry.getValue() / queries, zoneMisses.estimate(entry.getKey()), entry.getKey());
+        }
+    }
+
+    /** Discards all hit, miss and upstream statistics. */
+    public void clearStatistics() {
+        nodeHits.clear();
+        zoneMisses.clear();
+        zoneQueries.clear();
+        zoneTime.clear();
+    }
+
 }
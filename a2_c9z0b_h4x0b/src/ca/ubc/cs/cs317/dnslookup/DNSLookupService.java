@@ -7,21 +7,70 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DNSLookupService {
 
     private static final int DEFAULT_DNS_PORT = 53;
     private static final int MAX_INDIRECTION_LEVEL = 10;
+    private static final int SOCKET_TIMEOUT = 5000;
+    private static final long ADDRESS_GRACE_PERIOD = 50;
+    private static final int REVERSE_PARALLELISM = 32;
+    private static final int WARM_PARALLELISM = 16;
 
-    private static InetAddress rootServer;
+    // Root servers used to start each walk: either a single server chosen by the user, or the
+    // servers found in the root hints (refreshed by the priming query)
+    private static volatile List<InetAddress> rootServers = Collections.emptyList();
+    // Port of the DNS servers queried; only changed to use local test servers
+    static volatile int serverPort = DEFAULT_DNS_PORT;
     private static boolean verboseTracing = false;
-    private static DatagramSocket socket;
 
     private static DNSCache cache = DNSCache.getInstance();
 
     private static Random random = new Random();
 
+    private static AtomicLong upstreamQueries = new AtomicLong();
+
+    // Whether the last lookup made by each thread was counted as a cache hit
+    private static ThreadLocal<Boolean> lastLookupHit = ThreadLocal.withInitial(() -> false);
+    // Whether the lookups made by each thread are counted in the cache statistics (warm-up
+    // lookups are not, so that the hottest names reflect actual queries)
+    private static ThreadLocal<Boolean> countedLookups = ThreadLocal.withInitial(() -> true);
+    // The zone of the last delegation queried by the current lookup of each thread, or null if
+    // the lookup was answered from the cache so far
+    private static ThreadLocal<String> queriedZone = new ThreadLocal<>();
+
+    private static AdmissionControl admission = new AdmissionControl();
+
+    private static ServerHealth serverHealth = ServerHealth.getInstance();
+
+    // Queries currently waiting for a response, keyed by server and host name, so that queries for
+    // other record types of the same name can share the referrals instead of repeating them
+    private static ConcurrentMap<String, CompletableFuture<Void>> queriesInFlight = new ConcurrentHashMap<>();
+
+    private static ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "dns-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Exports run on their own (non-daemon) thread, so that quitting waits for them to complete
+    private static ExecutorService exporter = Executors.newSingleThreadExecutor();
+
+    /** The name servers a zone is delegated to, as found in a referral or in the cache. */
+    private static class Delegation {
+        private String zone;
+        private List<InetAddress> servers = new ArrayList<>();
+        private List<String> gluelessNameServers = new ArrayList<>();
+
+        private Delegation(String zone) {
+            this.zone = zone;
+        }
+    }
+
     /**
      * Main function, called when program is first invoked.
      *
@@ -29,28 +78,44 @@ public class DNSLookupService {
      */
     public static void main(String[] args) {
 
-        if (args.length != 1) {
-            System.err.println("Invalid call. Usage:");
-            System.err.println("\tjava -jar DNSLookupService.jar rootServer");
-            System.err.println("where rootServer is the IP address (in dotted form) of the root DNS server to start the search at.");
-            System.exit(1);
+        // Options may appear anywhere; the remaining arguments are the root server or hints file,
+        // followed by files to preload
+        String warmFile = null;
+        List<String> preloadFiles = new ArrayList<>();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ((args[i].equals("-w") || args[i].equals("-l")) && i + 1 < args.length) {
+                if (args[i].equals("-w")) warmFile = args[++i];
+                else preloadFiles.add(args[++i]);
+            } else if (args[i].startsWith("-")) {
+                System.err.println("Invalid call. Usage:");
+                System.err.println("\tjava -jar DNSLookupService.jar [-l file] ... [-w warmFile] [rootServer|hintsFile [file ...]]");
+                System.err.println("where rootServer is the IP address (in dotted form) of the root DNS server to start the search at,");
+                System.err.println("or hintsFile is a root hints file (the built-in root hints are used if neither is given),");
+                System.err.println("each file is a zone file, hosts file or cache snapshot whose records are preloaded in the cache,");
+                System.err.println("and warmFile is a list of names or a query log whose names are resolved before the prompt is shown.");
+                System.exit(1);
+            } else
+                positional.add(args[i]);
         }
 
-        try {
-            rootServer = InetAddress.getByName(args[0]);
-            System.out.println("Root DNS server is: " + rootServer.getHostAddress());
-        } catch (UnknownHostException e) {
-            System.err.println("Invalid root server (" + e.getMessage() + ").");
-            System.exit(1);
+        if (positional.isEmpty() || new File(positional.get(0)).isFile()) {
+            if (!useRootHints(positional.isEmpty() ? null : positional.get(0))) System.exit(1);
+        } else {
+            try {
+                rootServers = Collections.singletonList(InetAddress.getByName(positional.get(0)));
+                System.out.println("Root DNS server is: " + rootServers.get(0).getHostAddress());
+            } catch (UnknownHostException e) {
+                System.err.println("Invalid root server (" + e.getMessage() + ").");
+                System.exit(1);
+            }
         }
 
-        try {
-            socket = new DatagramSocket();
-            socket.setSoTimeout(5000);
-        } catch (SocketException ex) {
-            ex.printStackTrace();
-            System.exit(1);
-        }
+        if (positional.size() > 1) preloadFiles.addAll(positional.subList(1, positional.size()));
+        for (String fileName : preloadFiles)
+            loadFile(fileName, ZoneFileLoader.FILE_TTL);
+        if (warmFile != null)
+            warmCache(warmFile, WARM_PARALLELISM);
 
         Scanner in = new Scanner(System.in);
         Console console = System.console();
@@ -81,33 +146,51 @@ public class DNSLookupService {
                     commandArgs[0].equalsIgnoreCase("exit"))
                 break;
             else if (commandArgs[0].equalsIgnoreCase("server")) {
-                // SERVER: Change root nameserver
-                if (commandArgs.length == 2) {
+                // SERVER: Change root nameserver, or go back to the root hints
+                if ((commandArgs.length == 2 || commandArgs.length == 3) && commandArgs[1].equalsIgnoreCase("hints")) {
+                    useRootHints(commandArgs.length == 3 ? commandArgs[2] : null);
+                } else if (commandArgs.length == 2) {
                     try {
-                        rootServer = InetAddress.getByName(commandArgs[1]);
-                        System.out.println("Root DNS server is now: " + rootServer.getHostAddress());
+                        rootServers = Collections.singletonList(InetAddress.getByName(commandArgs[1]));
+                        System.out.println("Root DNS server is now: " + rootServers.get(0).getHostAddress());
                     } catch (UnknownHostException e) {
                         System.out.println("Invalid root server (" + e.getMessage() + ").");
                         continue;
                     }
                 } else {
-                    System.out.println("Invalid call. Format:\n\tserver IP");
+                    System.out.println("Invalid call. Format:\n\tserver IP|hints [file]");
                     continue;
                 }
             } else if (commandArgs[0].equalsIgnoreCase("trace")) {
-                // TRACE: Turn trace setting on or off
-                if (commandArgs.length == 2) {
+                // TRACE: Turn trace setting on or off, or inspect recorded trace events
+                if (commandArgs.length == 2 && commandArgs[1].equalsIgnoreCase("dump")) {
+                    TraceBuffer.dump(System.out);
+                    continue;
+                } else if (commandArgs.length == 3 && commandArgs[1].equalsIgnoreCase("sample")) {
+                    try {
+                        TraceBuffer.setSamplingRate(Integer.parseInt(commandArgs[2]));
+                        System.out.println("Tracing one of every " + TraceBuffer.getSamplingRate() + " queries");
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Invalid call. Format:\n\ttrace sample N");
+                    }
+                    continue;
+                } else if (commandArgs.length == 2) {
                     if (commandArgs[1].equalsIgnoreCase("on"))
                         verboseTracing = true;
                     else if (commandArgs[1].equalsIgnoreCase("off"))
                         verboseTracing = false;
+                    else if (commandArgs[1].equalsIgnoreCase("record"))
+                        // Record events without printing them, to be dumped on demand or on error
+                        verboseTracing = false;
                     else {
-                        System.err.println("Invalid call. Format:\n\ttrace on|off");
+                        System.err.println("Invalid call. Format:\n\ttrace on|off|record|dump|sample N");
                         continue;
                     }
-                    System.out.println("Verbose tracing is now: " + (verboseTracing ? "ON" : "OFF"));
+                    TraceBuffer.setEnabled(!commandArgs[1].equalsIgnoreCase("off"));
+                    System.out.println("Verbose tracing is now: " + (verboseTracing ? "ON" :
+                            TraceBuffer.isEnabled() ? "RECORDING" : "OFF"));
                 } else {
-                    System.err.println("Invalid call. Format:\n\ttrace on|off");
+                    System.err.println("Invalid call. Format:\n\ttrace on|off|record|dump|sample N");
                     continue;
                 }
             } else if (commandArgs[0].equalsIgnoreCase("lookup") ||
@@ -116,11 +199,14 @@ public class DNSLookupService {
                 RecordType type;
                 if (commandArgs.length == 2)
                     type = RecordType.A;
-                else if (commandArgs.length == 3)
+                else if (commandArgs.length == 3 && commandArgs[2].equalsIgnoreCase("ADDR")) {
+                    findAndPrintAddresses(commandArgs[1]);
+                    continue;
+                } else if (commandArgs.length == 3)
                     try {
                         type = RecordType.valueOf(commandArgs[2].toUpperCase());
                     } catch (IllegalArgumentException ex) {
-                        System.err.println("Invalid query type. Must be one of:\n\tA, AAAA, NS, MX, CNAME");
+                        System.err.println("Invalid query type. Must be one of:\n\tA, AAAA, ADDR, NS, MX, CNAME, SOA, TXT, SRV, PTR, DNAME");
                         continue;
                     }
                 else {
@@ -128,25 +214,226 @@ public class DNSLookupService {
                     continue;
                 }
                 findAndPrintResults(commandArgs[1], type);
+            } else if (commandArgs[0].equalsIgnoreCase("replay")) {
+                // REPLAY: Replay a timestamped query log and report throughput and latency
+                double speed = 1.0;
+                if (commandArgs.length == 3)
+                    try {
+                        speed = commandArgs[2].equalsIgnoreCase("max") ? 0 : Double.parseDouble(commandArgs[2]);
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Invalid speed. Must be a multiple of the original pace or 'max'.");
+                        continue;
+                    }
+                else if (commandArgs.length != 2) {
+                    System.err.println("Invalid call. Format:\n\treplay file [speed|max]");
+                    continue;
+                }
+                try {
+                    new QueryReplay(speed).run(commandArgs[1], System.out);
+                } catch (IOException ex) {
+                    System.err.println("Could not replay query log (" + ex.getMessage() + ").");
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("reverse")) {
+                // REVERSE: Append the host names of the address at the start of each line of a file
+                int parallelism = REVERSE_PARALLELISM;
+                if (commandArgs.length == 4)
+                    try {
+                        parallelism = Integer.parseInt(commandArgs[3]);
+                        if (parallelism <= 0) throw new NumberFormatException();
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Invalid parallelism. Must be a positive number of lookups.");
+                        continue;
+                    }
+                else if (commandArgs.length != 2 && commandArgs.length != 3) {
+                    System.err.println("Invalid call. Format:\n\treverse file [out [parallelism]]");
+                    continue;
+                }
+                try (PrintStream out = commandArgs.length > 2 ?
+                        new PrintStream(new BufferedOutputStream(new FileOutputStream(commandArgs[2]))) : null) {
+                    new ReverseLookup(parallelism).run(commandArgs[1], out == null ? System.out : out, System.out);
+                } catch (IOException ex) {
+                    System.err.println("Could not resolve addresses (" + ex.getMessage() + ").");
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("top")) {
+                // TOP: Print the most popular queries and the zones where most time is spent, or
+                // write the most popular queries to a file that can be used to warm the cache
+                int n = 10;
+                if (commandArgs.length == 2 && commandArgs[1].equalsIgnoreCase("reset")) {
+                    cache.clearStatistics();
+                    continue;
+                }
+                try {
+                    if (commandArgs.length > 3) throw new NumberFormatException();
+                    if (commandArgs.length >= 2) n = Integer.parseInt(commandArgs[1]);
+                } catch (NumberFormatException ex) {
+                    System.err.println("Invalid call. Format:\n\ttop [n [file]|reset]");
+                    continue;
+                }
+                if (n <= 0) {
+                    System.err.println("Invalid number of queries. Must be a positive number.");
+                    continue;
+                }
+                if (commandArgs.length == 3)
+                    writeHottestNodes(commandArgs[2], n);
+                else
+                    cache.printStatistics(System.out, n);
+            } else if (commandArgs[0].equalsIgnoreCase("warm")) {
+                // WARM: Resolve the names in a list or query log, most frequent first
+                int parallelism = WARM_PARALLELISM;
+                if (commandArgs.length == 3)
+                    try {
+                        parallelism = Integer.parseInt(commandArgs[2]);
+                        if (parallelism <= 0) throw new NumberFormatException();
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Invalid parallelism. Must be a positive number of lookups.");
+                        continue;
+                    }
+                else if (commandArgs.length != 2) {
+                    System.err.println("Invalid call. Format:\n\twarm file [parallelism]");
+                    continue;
+                }
+                warmCache(commandArgs[1], parallelism);
+            } else if (commandArgs[0].equalsIgnoreCase("servers")) {
+                // SERVERS: Print the round-trip times and failures recorded for each name server
+                serverHealth.print(System.out);
             } else if (commandArgs[0].equalsIgnoreCase("dump")) {
                 // DUMP: Print all results still cached
-                cache.forEachNode(DNSLookupService::printResults);
+                CacheExporter.writeText(cache.snapshot(), System.out);
+            } else if (commandArgs[0].equalsIgnoreCase("limit")) {
+                // LIMIT: Configure admission control for queries sent on behalf of clients
+                try {
+                    if (commandArgs.length == 1) {
+                        admission.printStatistics(System.out);
+                    } else if (commandArgs.length == 2 && commandArgs[1].equalsIgnoreCase("off")) {
+                        admission.disable();
+                    } else if ((commandArgs.length == 3 || commandArgs.length == 4) &&
+                            commandArgs[1].equalsIgnoreCase("client")) {
+                        double rate = Double.parseDouble(commandArgs[2]);
+                        admission.setClientLimit(rate, commandArgs.length == 4 ? Double.parseDouble(commandArgs[3]) : rate);
+                    } else if ((commandArgs.length == 3 || commandArgs.length == 4) &&
+                            commandArgs[1].equalsIgnoreCase("zone")) {
+                        double rate = Double.parseDouble(commandArgs[2]);
+                        admission.setZoneLimit(rate, commandArgs.length == 4 ? Double.parseDouble(commandArgs[3]) : rate);
+                    } else if (commandArgs.length >= 3 && commandArgs.length <= 5 &&
+                            commandArgs[1].equalsIgnoreCase("resolutions")) {
+                        int max = Integer.parseInt(commandArgs[2]);
+                        admission.setResolutionLimit(max, commandArgs.length > 3 ? Integer.parseInt(commandArgs[3]) : max,
+                                commandArgs.length > 4 ? Long.parseLong(commandArgs[4]) : SOCKET_TIMEOUT);
+                    } else
+                        throw new NumberFormatException();
+                } catch (NumberFormatException ex) {
+                    System.err.println("Invalid call. Format:\n\tlimit [off|client rate [burst]|zone rate [burst]|resolutions max [queue [timeout]]]");
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("load")) {
+                // LOAD: Preload the cache with the records in a zone file, hosts file or cache snapshot
+                long ttl = ZoneFileLoader.FILE_TTL;
+                if (commandArgs.length == 3)
+                    try {
+                        ttl = commandArgs[2].equalsIgnoreCase("pin") ? ZoneFileLoader.PINNED : Long.parseLong(commandArgs[2]);
+                        if (ttl <= 0 && ttl != ZoneFileLoader.PINNED) throw new NumberFormatException();
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Invalid TTL. Must be a positive number of seconds or 'pin'.");
+                        continue;
+                    }
+                else if (commandArgs.length != 2) {
+                    System.err.println("Invalid call. Format:\n\tload file [ttl|pin]");
+                    continue;
+                }
+                loadFile(commandArgs[1], ttl);
+            } else if (commandArgs[0].equalsIgnoreCase("export")) {
+                // EXPORT: Write all results still cached to a file, in the background
+                boolean binary = commandArgs.length == 3 && commandArgs[2].equalsIgnoreCase("binary");
+                if (commandArgs.length < 2 || commandArgs.length > 3 ||
+                        (commandArgs.length == 3 && !binary && !commandArgs[2].equalsIgnoreCase("text"))) {
+                    System.err.println("Invalid call. Format:\n\texport file [text|binary]");
+                    continue;
+                }
+                exportCache(commandArgs[1], binary);
             } else {
                 System.err.println("Invalid command. Valid commands are:");
                 System.err.println("\tlookup fqdn [type]");
-                System.err.println("\ttrace on|off");
-                System.err.println("\tserver IP");
+                System.err.println("\ttrace on|off|record|dump|sample N");
+                System.err.println("\tserver IP|hints [file]");
                 System.err.println("\tdump");
+                System.err.println("\tservers");
+                System.err.println("\ttop [n [file]|reset]");
+                System.err.println("\twarm file [parallelism]");
+                System.err.println("\texport file [text|binary]");
+                System.err.println("\tload file [ttl|pin]");
+                System.err.println("\tlimit [off|client rate [burst]|zone rate [burst]|resolutions max [queue [timeout]]]");
+                System.err.println("\treplay file [speed|max]");
+                System.err.println("\treverse file [out [parallelism]]");
                 System.err.println("\tquit");
                 continue;
             }
 
         } while (true);
 
-        socket.close();
+        executor.shutdownNow();
+        exporter.shutdown();
         System.out.println("Goodbye!");
     }
 
+    /**
+     * Starts each walk from the root servers in the root hints, and sends a priming query in the
+     * background to refresh them from the root servers themselves. Until the priming query
+     * completes, the addresses in the hints are used.
+     *
+     * @param fileName Name of a root hints file, or null to use the built-in hints.
+     * @return true if the hints were loaded, false otherwise.
+     */
+    private static boolean useRootHints(String fileName) {
+
+        try {
+            if (fileName == null)
+                RootHints.addDefaultHints(cache);
+            else
+                RootHints.addHints(cache, fileName);
+        } catch (IOException e) {
+            System.err.println("Could not load root hints (" + e.getMessage() + ").");
+            return false;
+        }
+        List<InetAddress> hints = RootHints.getRootServers(cache);
+        if (hints.isEmpty()) {
+            System.err.println("No root server addresses found in root hints.");
+            return false;
+        }
+        rootServers = hints;
+        System.out.println("Using " + hints.size() + " root server addresses from " +
+                (fileName == null ? "built-in root hints" : fileName));
+
+        executor.submit(() -> {
+            Delegation root = new Delegation("");
+            root.servers.addAll(hints);
+            retrieveResultsFromServer(new DNSNode("", RecordType.NS), root, 0, Collections.emptySet());
+            List<InetAddress> primed = RootHints.getRootServers(cache);
+            // The user may have chosen a specific root server in the meantime
+            if (rootServers == hints && !primed.isEmpty())
+                rootServers = primed;
+        });
+        return true;
+    }
+
+    /**
+     * Preloads the cache with all records in a file, and prints how many records were loaded.
+     *
+     * @param fileName Name of a zone file, hosts file or binary cache snapshot.
+     * @param ttl      TTL given to the loaded records, ZoneFileLoader.PINNED to pin them, or
+     *                 ZoneFileLoader.FILE_TTL to use the TTLs in the file.
+     */
+    private static void loadFile(String fileName, long ttl) {
+
+        ZoneFileLoader loader = new ZoneFileLoader(cache, ttl);
+        long start = System.nanoTime();
+        try {
+            loader.load(fileName);
+            System.out.printf("Loaded %d records from %s in %.3f s (%d skipped)\n", loader.getLoadedCount(),
+                    fileName, (System.nanoTime() - start) / 1e9, loader.getSkippedCount());
+        } catch (IOException ex) {
+            System.err.println("Could not load " + fileName + " (" + ex.getMessage() + ").");
+        }
+    }
+
     /**
      * Finds all results for a host name and type and prints them on the standard output.
      *
@@ -156,7 +443,209 @@ public class DNSLookupService {
     private static void findAndPrintResults(String hostName, RecordType type) {
 
         DNSNode node = new DNSNode(hostName, type);
-        printResults(node, getResults(node, 0));
+        long traceStart = TraceBuffer.now();
+        Set<ResourceRecord> results = getResults(node, 0);
+        if (verboseTracing)
+            TraceBuffer.render(System.out, traceStart);
+        printResults(node, results);
+    }
+
+    /**
+     * Finds all IPv4 and IPv6 addresses for a host name and prints them on the standard output.
+     *
+     * @param hostName Fully qualified domain name of the host being searched.
+     */
+    private static void findAndPrintAddresses(String hostName) {
+
+        long traceStart = TraceBuffer.now();
+        Set<ResourceRecord> results = getAddresses(hostName, -1);
+        if (verboseTracing)
+            TraceBuffer.render(System.out, traceStart);
+        printResults(new DNSNode(hostName, RecordType.A), results);
+    }
+
+    /**
+     * Finds both the IPv4 (A) and IPv6 (AAAA) addresses of a host name. Both queries are issued
+     * in parallel and share the delegation walk: referrals obtained by one of them are used by
+     * the other instead of being requested again. Once the first family returns addresses, the
+     * other family is given a grace period to complete (as in Happy Eyeballs), after which the
+     * addresses found so far are returned.
+     *
+     * @param hostName    Fully qualified domain name of the host being searched.
+     * @param gracePeriod Time, in milliseconds, to wait for the second family after the first one
+     *                    returns addresses. A negative value waits for both families.
+     * @return The merged set of A and AAAA records found for the host name.
+     */
+    static Set<ResourceRecord> getAddresses(String hostName, long gracePeriod) {
+
+        CompletionService<Set<ResourceRecord>> completion = new ExecutorCompletionService<>(executor);
+        completion.submit(() -> getResults(new DNSNode(hostName, RecordType.A), 0));
+        completion.submit(() -> getResults(new DNSNode(hostName, RecordType.AAAA), 0));
+
+        Set<ResourceRecord> results = new LinkedHashSet<>();
+        long deadline = 0;
+        try {
+            for (int i = 0; i < 2; i++) {
+                Future<Set<ResourceRecord>> family = deadline == 0 ? completion.take() :
+                        completion.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (family == null) break; // grace period expired
+                results.addAll(family.get());
+                if (!results.isEmpty() && deadline == 0 && gracePeriod >= 0)
+                    deadline = System.currentTimeMillis() + gracePeriod;
+            }
+        } catch (ExecutionException e) {
+            System.err.println("Could not resolve " + hostName + " (" + e.getCause() + ").");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    /**
+     * Finds both address families of a host name, completing shortly after the first family
+     * returns addresses.
+     *
+     * @param hostName Fully qualified domain name of the host being searched.
+     * @return The merged set of A and AAAA records found for the host name.
+     */
+    static Set<ResourceRecord> getAddresses(String hostName) {
+        return getAddresses(hostName, ADDRESS_GRACE_PERIOD);
+    }
+
+    /**
+     * Writes a snapshot of the cache to a file. The snapshot is taken immediately, while the file
+     * is written in the background, so that lookups may proceed while a large cache is exported.
+     *
+     * @param fileName Name of the file to be written.
+     * @param binary   true to use the binary snapshot format, false to use the text format.
+     */
+    private static void exportCache(String fileName, boolean binary) {
+
+        List<ResourceRecord> snapshot = cache.snapshot();
+        exporter.submit(() -> {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))) {
+                int count = binary ? CacheExporter.writeBinary(snapshot, out) :
+                        CacheExporter.writeText(snapshot, new PrintStream(out, false, "UTF-8"));
+                System.out.println("Exported " + count + " records to " + fileName + ".");
+            } catch (IOException e) {
+                System.err.println("Could not export cache (" + e.getMessage() + ").");
+            }
+        });
+    }
+
+    /**
+     * Resolves the names in a list or query log, to warm the cache up, and prints the time taken
+     * and the coverage achieved.
+     *
+     * @param fileName    Name of the file with the names to be resolved.
+     * @param parallelism Maximum number of names resolved concurrently.
+     */
+    private static void warmCache(String fileName, int parallelism) {
+        try {
+            new CacheWarmer(parallelism).run(fileName, System.out);
+        } catch (IOException ex) {
+            System.err.println("Could not warm the cache (" + ex.getMessage() + ").");
+        }
+    }
+
+    /**
+     * Writes the most popular queries answered from the cache to a file, most popular first, in a
+     * format that can be used to warm the cache on a later start.
+     *
+     * @param fileName Name of the file to be written.
+     * @param n        Maximum number of queries written.
+     */
+    private static void writeHottestNodes(String fileName, int n) {
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            List<Map.Entry<DNSNode, Long>> hottest = cache.getHottestNodes(n);
+            for (Map.Entry<DNSNode, Long> entry : hottest)
+                out.println(entry.getKey().getHostName() + " " + entry.getKey().getType());
+            System.out.println("Wrote " + hottest.size() + " names to " + fileName + ".");
+        } catch (IOException ex) {
+            System.err.println("Could not write names (" + ex.getMessage() + ").");
+        }
+    }
+
+    /**
+     * Finds all results for a specific node, starting from the cache. Used by tools that drive the
+     * resolver programmatically instead of through the command line.
+     *
+     * @param node Host and record type to be used for search.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    static Set<ResourceRecord> lookup(DNSNode node) {
+        return getResults(node, 0);
+    }
+
+    /**
+     * Finds all results for a specific node like lookup, without counting the lookup in the
+     * cache statistics. Used to warm the cache up.
+     *
+     * @param node Host and record type to be used for search.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    static Set<ResourceRecord> prefetch(DNSNode node) {
+        countedLookups.set(false);
+        try {
+            return getResults(node, 0);
+        } finally {
+            countedLookups.set(true);
+        }
+    }
+
+    /**
+     * Changes the root servers where searches start, as the "server" command does. Used by tools
+     * that drive the resolver programmatically.
+     *
+     * @param servers Addresses of the root servers.
+     */
+    static void setRootServers(List<InetAddress> servers) {
+        rootServers = new ArrayList<>(servers);
+    }
+
+    /**
+     * Finds all results for a specific node on behalf of a client, subject to admission control.
+     * Queries answered from the cache are only checked against the client's rate limit; queries
+     * requiring an iterative resolution are also checked against the limit of the queried zone,
+     * and fail fast if too many resolutions are already outstanding.
+     *
+     * @param node   Host and record type to be used for search.
+     * @param client Address of the client sending the query, or null for a local query.
+     * @return A set of resource records corresponding to the specific query requested.
+     * @throws AdmissionControl.RejectedException If the query was refused or failed due to overload.
+     */
+    static Set<ResourceRecord> lookup(DNSNode node, InetAddress client) throws AdmissionControl.RejectedException {
+
+        admission.admitQuery(client);
+        if (!cache.getCachedResults(node).isEmpty() || !cache.getFlattenedResults(node).isEmpty())
+            return getResults(node, 0);
+
+        admission.beginResolution(node.getHostName());
+        try {
+            return getResults(node, 0);
+        } finally {
+            admission.endResolution();
+        }
+    }
+
+    /**
+     * Returns the number of queries sent to DNS servers since the program started, by all threads.
+     *
+     * @return Total number of queries sent upstream.
+     */
+    static long getUpstreamQueryCount() {
+        return upstreamQueries.get();
+    }
+
+    /**
+     * Returns whether the last lookup made by the current thread was answered from the cache, as
+     * counted in the cache statistics. Unlike comparing upstream query counts, this is not
+     * affected by lookups made at the same time by other threads.
+     *
+     * @return true if the last lookup of this thread was a cache hit.
+     */
+    static boolean wasCacheHit() {
+        return lastLookupHit.get();
     }
 
     /**
@@ -171,49 +660,309 @@ public class DNSLookupService {
      * @return A set of resource records corresponding to the specific query requested.
      */
     private static Set<ResourceRecord> getResults(DNSNode node, int indirectionLevel) {
+        if (indirectionLevel > 0) return getResults(node, indirectionLevel, Collections.emptySet());
+
+        // The lookup is a cache hit only if no part of the answer (e.g., the target of a cached
+        // CNAME record) had to be retrieved from a server
+        queriedZone.set(null);
+        Set<ResourceRecord> results = getResults(node, 0, Collections.emptySet());
+        String zone = queriedZone.get();
+        if (zone == null)
+            recordHit(node);
+        else
+            recordMiss(zone);
+        return results;
+    }
+
+    /**
+     * Finds all the result for a specific node, as part of the resolution of the name servers of
+     * a delegation without glue.
+     *
+     * @param node             Host and record type to be used for search.
+     * @param indirectionLevel Number of CNAME redirections and glueless name server lookups that
+     *                         led to this search.
+     * @param resolving        Names of the name servers being resolved by the enclosing searches.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    private static Set<ResourceRecord> getResults(DNSNode node, int indirectionLevel, Set<String> resolving) {
 
         if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
             System.err.println("Maximum number of indirection levels reached.");
             return Collections.emptySet();
         }
 
-        // TODO To be completed by the student
+        Set<ResourceRecord> results = cache.getCachedResults(node);
+        if (!results.isEmpty()) return results;
+        if (node.getType() == RecordType.CNAME) {
+            queriedZone.set(retrieveResultsFromServer(node, findClosestDelegation(node.getHostName()),
+                    indirectionLevel, resolving));
+            return cache.getCachedResults(node);
+        }
+
+        // An alias followed before is answered from its flattened chain with a single probe
+        results = cache.getFlattenedResults(node);
+        if (!results.isEmpty()) return results;
 
-        InetAddress server = rootServer;
-        if(cache.getCachedResults(node).isEmpty()) {//node is not in the cache
-            retrieveResultsFromServer(node, server);
+        ResourceRecord alias = findCachedAlias(node.getHostName());
+        if (alias == null) {//node is not in the cache
+            queriedZone.set(retrieveResultsFromServer(node, findClosestDelegation(node.getHostName()),
+                    indirectionLevel, resolving));
+            results = cache.getCachedResults(node);
+            if (!results.isEmpty()) return results;
+            alias = findCachedAlias(node.getHostName());
+            if (alias == null) return results;
         }
 
-        return cache.getCachedResults(node);
+        DNSNode target = new DNSNode(alias.getTextResult(), node.getType());
+        results = getResults(target, indirectionLevel + 1, resolving);
+        cache.addFlattenedChain(node, alias, target, results);
+        return results;
+    }
+
+    private static void recordHit(DNSNode node) {
+        if (countedLookups.get()) cache.recordHit(node);
+        lastLookupHit.set(true);
+    }
+
+    /** Records a lookup that was not answered from the cache, against the zone whose servers
+     * provided the final answer (or were queried last), as upstream queries are.
+     */
+    private static void recordMiss(String zone) {
+        if (countedLookups.get()) cache.recordMiss(zone);
+        lastLookupHit.set(false);
     }
 
     /**
-     * Retrieves DNS results from a specified DNS server. Queries are sent in iterative mode,
-     * and the query is repeated with a new server if the provided one is non-authoritative.
-     * Results are stored in the cache.
+     * Finds a cached CNAME record for a host name. If the host name has no CNAME record of its
+     * own, but one of its ancestors has a cached DNAME record, an equivalent CNAME record is
+     * synthesized from the DNAME record and cached.
      *
-     * @param node   Host name and record type to be used for the query.
-     * @param server Address of the server to be used for the query.
+     * @param hostName Host name whose alias is being searched.
+     * @return The CNAME record for the host name, or null if none is cached.
      */
-    private static void retrieveResultsFromServer(DNSNode node, InetAddress server) {
+    private static ResourceRecord findCachedAlias(String hostName) {
+        for (ResourceRecord record : cache.getCachedResults(new DNSNode(hostName, RecordType.CNAME)))
+            return record;
 
-        // TODO To be completed by the student
-            //connect socket
-            socket.connect(server, DEFAULT_DNS_PORT);
+        for (int dot = hostName.indexOf('.'); dot >= 0; dot = hostName.indexOf('.', dot + 1)) {
+            String owner = hostName.substring(dot + 1);
+            for (ResourceRecord dname : cache.getCachedResults(new DNSNode(owner, RecordType.DNAME))) {
+                ResourceRecord alias = new ResourceRecord(hostName, RecordType.CNAME, dname.getTTL(),
+                        hostName.substring(0, dot + 1) + dname.getTextResult());
+                cache.addResult(alias);
+                return alias;
+            }
+        }
+        return null;
+    }
 
-            //send packet
-            sendPacket(node, server);
+    /**
+     * Finds the delegation closest to a host name in the DNS hierarchy, based on the delegations
+     * already in the cache: the longest cached zone enclosing the host name for which the address
+     * of at least one name server is cached. Lookups starting from this delegation skip the part
+     * of the walk that was done by previous lookups.
+     *
+     * @param hostName Fully qualified domain name of the host being searched.
+     * @return The name servers of the closest cached zone, or the root server if none.
+     */
+    private static Delegation findClosestDelegation(String hostName) {
 
-            //receive packet
-            receivePacket(node, server);
+        for (String zone = hostName; !zone.isEmpty(); ) {
+            Delegation delegation = new Delegation(zone);
+            for (ResourceRecord ns : cache.getCachedResults(new DNSNode(zone, RecordType.NS))) {
+                Set<ResourceRecord> glue = cache.getCachedResults(new DNSNode(ns.getTextResult(), RecordType.A));
+                if (glue.isEmpty())
+                    delegation.gluelessNameServers.add(ns.getTextResult());
+                for (ResourceRecord address : glue)
+                    try {
+                        delegation.servers.add(InetAddress.getByName(address.getTextResult()));
+                    } catch (UnknownHostException e) {
+                        // Not an address literal, try the next one
+                    }
+            }
+            if (!delegation.servers.isEmpty()) return delegation;
+            int dot = zone.indexOf('.');
+            zone = dot < 0 ? "" : zone.substring(dot + 1);
+        }
+        Delegation root = new Delegation("");
+        root.servers.addAll(rootServers);
+        return root;
     }
 
-    private static void verbosePrintResourceRecord(ResourceRecord record, int rtype) {
-        if (verboseTracing)
-            System.out.format("       %-30s %-10d %-4s %s\n", record.getHostName(),
-                    record.getTTL(),
-                    record.getType() == RecordType.OTHER ? rtype : record.getType(),
-                    record.getTextResult());
+    /**
+     * Retrieves DNS results starting from the name servers of a delegation. Queries are sent in
+     * iterative mode, and repeated with the servers of each referral until an answer is found.
+     * Servers are tried in the order chosen by the infrastructure cache (ServerHealth), skipping
+     * servers that recently failed; if a server fails, the next one is tried. Results are stored
+     * in the cache.
+     *
+     * @param node             Host name and record type to be used for the query.
+     * @param delegation       Name servers to be used for the query.
+     * @param indirectionLevel Indirection level of the search the query is part of.
+     * @param resolving        Names of the name servers being resolved by the enclosing searches.
+     * @return The zone of the last delegation whose servers were queried.
+     */
+    private static String retrieveResultsFromServer(DNSNode node, Delegation delegation, int indirectionLevel,
+                                                    Set<String> resolving) {
+
+        String zone = delegation.zone;
+        while (delegation != null) {
+            zone = delegation.zone;
+            Delegation next = null;
+            boolean responded = false;
+            for (InetAddress server : serverHealth.select(delegation.servers, delegation.zone)) {
+                // If the same name is being asked to the same server for another record type, wait
+                // for its response: a referral makes a closer server available in the cache.
+                String key = server.getHostAddress() + " " + node.getHostName().toLowerCase();
+                CompletableFuture<Void> query = new CompletableFuture<>();
+                CompletableFuture<Void> other = queriesInFlight.putIfAbsent(key, query);
+                if (other != null) {
+                    try {
+                        other.get(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return zone;
+                    } catch (ExecutionException | TimeoutException e) {
+                        // Proceed with our own query
+                    }
+                    if (!cache.getCachedResults(node).isEmpty()) return zone;
+                    Delegation closer = findClosestDelegation(node.getHostName());
+                    if (closer.zone.length() > delegation.zone.length()) {
+                        next = closer;
+                        responded = true;
+                        break;
+                    }
+                }
+
+                Delegation referral = new Delegation(null);
+                try {
+                    responded = queryServer(node, server, delegation.zone, referral);
+                } finally {
+                    if (other == null) {
+                        queriesInFlight.remove(key, query);
+                        query.complete(null);
+                    }
+                }
+                if (responded) {
+                    if (referral.zone != null) next = referral;
+                    break;
+                }
+            }
+
+            // No server with a known address responded: resolve the name servers without glue
+            if (!responded && !delegation.gluelessNameServers.isEmpty()) {
+                List<InetAddress> servers = resolveGluelessNameServers(delegation.gluelessNameServers,
+                        indirectionLevel, resolving);
+                if (!servers.isEmpty()) {
+                    next = new Delegation(delegation.zone);
+                    next.servers.addAll(servers);
+                }
+            }
+            delegation = next;
+        }
+        return zone;
+    }
+
+    /**
+     * Sends a query to a server and processes its response, recording the outcome in the
+     * infrastructure cache.
+     *
+     * @param node     Host name and record type to be used for the query.
+     * @param server   Address of the server to be used for the query.
+     * @param zone     Zone the server was delegated.
+     * @param referral Delegation filled with the zone and name servers of the referral, if the
+     *                 response is a referral.
+     * @return true if the server responded with an answer or a referral, false if it failed.
+     */
+    private static boolean queryServer(DNSNode node, InetAddress server, String zone, Delegation referral) {
+
+        // Each query uses its own socket, so that independent lookups may run concurrently
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+
+            long start = System.nanoTime();
+            ServerHealth.Failure failure;
+            try {
+                //connect socket
+                socket.connect(server, serverPort);
+                //send packet
+                sendPacket(socket, node, server);
+                //receive packet
+                failure = receivePacket(socket, node, server, zone, referral);
+            } catch (IOException | UncheckedIOException e) {
+                // e.g., no route to an IPv6 server
+                TraceBuffer.unreachable(node, server);
+                failure = ServerHealth.Failure.UNREACHABLE;
+            }
+            long rtt = (System.nanoTime() - start) / 1000000;
+            cache.recordUpstreamQuery(zone, rtt);
+            if (failure == null)
+                serverHealth.recordSuccess(server, zone, rtt);
+            else
+                serverHealth.recordFailure(server, zone, failure);
+            return failure == null;
+        } catch (SocketException e) {
+            reportError("Could not open a socket to query " + server.getHostAddress(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the addresses of a delegation's name servers when the referral did not include any
+     * glue records. All name servers are resolved concurrently by this resolver (never by the
+     * system resolver). Once the first addresses are obtained, the other lookups are given a grace
+     * period to complete, so that the delegation has fallback servers; lookups still running after
+     * that keep going in the background and their results are cached as they arrive.
+     *
+     * The name servers are resolved one indirection level deeper than the search that needs them,
+     * and name servers already being resolved by an enclosing search are skipped, so that cyclic
+     * delegations (e.g., ns.a.example only served by ns.b.example, and vice versa) and delegations
+     * to name servers inside the zone without glue fail instead of recursing without bound.
+     *
+     * @param nameServers      Host names of the name servers listed in the referral.
+     * @param indirectionLevel Indirection level of the search that needs the name servers.
+     * @param resolving        Names of the name servers being resolved by the enclosing searches.
+     * @return The addresses found for the name servers, empty if none was found.
+     */
+    private static List<InetAddress> resolveGluelessNameServers(List<String> nameServers, int indirectionLevel,
+                                                                Set<String> resolving) {
+
+        Set<String> enclosing = new HashSet<>(resolving);
+        for (String nameServer : nameServers)
+            enclosing.add(nameServer.toLowerCase());
+
+        CompletionService<List<InetAddress>> completion = new ExecutorCompletionService<>(executor);
+        int lookups = 0;
+        for (String nameServer : nameServers) {
+            if (resolving.contains(nameServer.toLowerCase())) continue; // cyclic delegation
+            completion.submit(() -> {
+                List<InetAddress> addresses = new ArrayList<>();
+                for (ResourceRecord record : getResults(new DNSNode(nameServer, RecordType.A),
+                        indirectionLevel + 1, enclosing))
+                    addresses.add(InetAddress.getByName(record.getTextResult()));
+                return addresses;
+            });
+            lookups++;
+        }
+
+        List<InetAddress> addresses = new ArrayList<>();
+        long deadline = 0;
+        for (int i = 0; i < lookups; i++) {
+            try {
+                Future<List<InetAddress>> lookup = deadline == 0 ? completion.take() :
+                        completion.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (lookup == null) break; // grace period expired
+                addresses.addAll(lookup.get());
+                if (!addresses.isEmpty() && deadline == 0)
+                    deadline = System.currentTimeMillis() + ADDRESS_GRACE_PERIOD;
+            } catch (ExecutionException e) {
+                // A name server whose address could not be resolved is not used, as if it had none
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return addresses;
     }
 
     /**
@@ -228,45 +977,61 @@ public class DNSLookupService {
                     node.getType(), -1, "0.0.0.0");
         for (ResourceRecord record : results) {
             System.out.printf("%-30s %-5s %-8d %s\n", node.getHostName(),
-                    node.getType(), record.getTTL(), record.getTextResult());
+                    record.getType(), record.getTTL(), record.getTextResult());
         }
     }
 
     /**
+     * @param socket Socket, connected to the server, used to send the query.
      * @param node   Host name and record type to be used for the query.
      * @param server Address of the server to be used for the query.
+     * @throws IOException If the query could not be sent.
      */
-    private static void sendPacket(DNSNode node, InetAddress server) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(baos);
-            //int queryID = random.nextInt();
-            dos.writeShort(random.nextInt()); // Query ID
-            //System.out.println("QueryID " + queryID + node.getHostName() + " " + node.getType() + " --> " + server);
-            dos.writeShort(0x0100); // Write Query Flags
-            dos.writeShort(0x0001); // Question Count
-            dos.writeShort(0x0000); // Answer count
-            dos.writeShort(0x0000); // Authority Record count
-            dos.writeShort(0x0000); // Additional Record count
-            String[] domainParts = node.getHostName().split("\\.");
-            for (int i = 0; i < domainParts.length; i++) {
-                byte[] domainBytes = domainParts[i].getBytes("UTF-8");
-                dos.writeByte(domainBytes.length);
-                dos.write(domainBytes);
-            }
-
-            dos.writeByte(0x00); // Ending the sequence
-            dos.writeShort(node.getType().getCode()); // Type 0x01 = A (Host Request)
-            dos.writeShort(0x0001); // Class 0x01 = IN
-            byte[] sendData = baos.toByteArray(); //put it together
-            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, server, socket.getPort()); //put it in a packet
-            socket.send(sendPacket); // send the data
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static void sendPacket(DatagramSocket socket, DNSNode node, InetAddress server) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        int queryID = random.nextInt(0x10000);
+        dos.writeShort(queryID); // Query ID
+        dos.writeShort(0x0100); // Write Query Flags
+        dos.writeShort(0x0001); // Question Count
+        dos.writeShort(0x0000); // Answer count
+        dos.writeShort(0x0000); // Authority Record count
+        dos.writeShort(0x0000); // Additional Record count
+        String[] domainParts = node.getHostName().split("\\.");
+        for (int i = 0; i < domainParts.length; i++) {
+            if (domainParts[i].isEmpty()) continue; // root zone
+            byte[] domainBytes = domainParts[i].getBytes("UTF-8");
+            dos.writeByte(domainBytes.length);
+            dos.write(domainBytes);
         }
+
+        dos.writeByte(0x00); // Ending the sequence
+        dos.writeShort(node.getType().getCode()); // Type 0x01 = A (Host Request)
+        dos.writeShort(0x0001); // Class 0x01 = IN
+        byte[] sendData = baos.toByteArray(); //put it together
+        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, server, socket.getPort()); //put it in a packet
+        socket.send(sendPacket); // send the data
+        upstreamQueries.incrementAndGet();
+        TraceBuffer.querySent(node, server, queryID);
     }
 
-    private static void receivePacket(DNSNode node, InetAddress server) {
+    /**
+     * Receives and decodes the response to a query, caching all records it contains.
+     *
+     * A response is lame if it is not authoritative and contains neither an answer nor a referral
+     * to a zone closer to the host name than the zone the server was delegated.
+     *
+     * @param socket   Socket, connected to the server, used to receive the response.
+     * @param node     Host name and record type used for the query.
+     * @param server   Address of the server the query was sent to.
+     * @param zone     Zone the server was delegated.
+     * @param referral Delegation filled with the zone of the referral, the addresses of its name
+     *                 servers found in the response, and the names of the other name servers,
+     *                 if the response is a referral.
+     * @return null if the server responded, or the reason why the server failed.
+     */
+    private static ServerHealth.Failure receivePacket(DatagramSocket socket, DNSNode node, InetAddress server,
+                                                      String zone, Delegation referral) {
         try {
             byte[] receiveData = new byte[1024];
             DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
@@ -294,43 +1059,21 @@ public class DNSLookupService {
                 short queryClass = din.readShort();
                 questionCount--;
             }
-            if(verboseTracing){
-                System.out.println("Respond ID " + transactionID);
-                System.out.println("Answers (" +answerCount+ ")");
-            }
+            TraceBuffer.responseReceived(transactionID, (flags & 0x0400) != 0, answerCount, authRRCount, addRRCount);
+            if ((flags & 0x000F) == 2) return ServerHealth.Failure.SERVFAIL;
+            if ((flags & 0x000F) == 5) return ServerHealth.Failure.REFUSED;
 
             //answer
-            if(verboseTracing) {
-                System.out.println("Nameservers (" + authRRCount + ")");
-            }
             //decodeRR(din,authRRCount,receiveData,node, server); //decoding authorativeRR
             boolean isNS = false;
+            List<String> nameServers = new ArrayList<>();
+            Set<String> gluedNameServers = new HashSet<>();
+            String nameServerZone = null;
             boolean gotAns = false;
             try {
                 while(answerCount > 0){
-                    String name ="";
-                    byte pointer = din.readByte();
-                    if((int) pointer >> 4 == -4) {
-                        byte location = din.readByte();
-                        name = findDomainName(receiveData, pointer, location);
-                    }else{
-                        while(pointer > 0) {
-                            if((int) pointer >> 4 == -4) {
-                                byte location = din.readByte();
-                                name = name + "." + findDomainName(receiveData, pointer, location);
-                            }
-                            byte[] record = new byte[pointer];
-                            for (int i = 0; i < pointer; i++) {
-                                record[i] = din.readByte();
-                            }
-                            if (name.equals("")) {
-                                name = name + new String(record, "UTF-8");
-                            } else {
-                                name = name + "." + new String(record, "UTF-8");
-                            }
-                            pointer = din.readByte();
-                        }
-                    }
+                    String name = readDomainName(din, receiveData);
+                    RecordData data = null;
                     short answerType = din.readShort();
                     RecordType aType = RecordType.getByCode(answerType);
                     short answerClass = din.readShort();
@@ -353,33 +1096,20 @@ public class DNSLookupService {
                                 address = address + ":";
                             }
                         }
+                    } else {
+                        data = new RecordData(aType, receiveData, receiveData.length - din.available(), addrLen);
+                        din.skipBytes(addrLen);
                     }
                     answerCount--;
-                    ResourceRecord newRR = new ResourceRecord(name, aType, TTL, address);
+                    ResourceRecord newRR = data == null ? new ResourceRecord(name, aType, TTL, address)
+                            : new ResourceRecord(name, aType, TTL, data);
                     cache.addResult(newRR);
-                    verbosePrintResourceRecord(newRR,(int) answerType);
+                    TraceBuffer.recordCached(newRR, answerType, TraceBuffer.ANSWER_SECTION);
                     gotAns = true;
                 }
                 while (authRRCount > 0) {
-                    String name = "";
-                    byte pointer = din.readByte();
-                    if((int) pointer >>4 == -4) {
-                        byte location = din.readByte();
-                        name = findDomainName(receiveData, pointer, location);
-                    }else{
-                        while(pointer > 0) {
-                            byte[] record = new byte[pointer];
-                            for (int i = 0; i < pointer ; i++) {
-                                record[i] = din.readByte();
-                            }
-                            if (name.equals("")) {
-                                name = name + new String(record, "UTF-8");
-                            } else {
-                                name = name + "." + new String(record, "UTF-8");
-                            }
-                            pointer = din.readByte();
-                        }
-                    }
+                    String name = readDomainName(din, receiveData);
+                    RecordData data = null;
                     short answerType = din.readShort();
                     RecordType aType = RecordType.getByCode(answerType);
                     short answerClass = din.readShort();
@@ -403,54 +1133,29 @@ public class DNSLookupService {
                             }
                         }
                     } else { //it is not an IP address
-                        if(answerType == (byte) 0x02) { // it is a NS
-                            byte recLen = din.readByte();
-                            addrLen--;
-                            while (addrLen > 0) {
-                                if ((int) recLen >> 4 == -4) { //pointer
-                                    byte location2 = din.readByte();
-                                    address = address + "." + findDomainName(receiveData, recLen, location2);
-                                    addrLen--;
-                                } else {
-                                    while ((recLen > 0)) {
-                                        byte[] record = new byte[recLen];
-                                        for (int i = 0; i < recLen; i++) {
-                                            record[i] = din.readByte();
-                                            addrLen--;
-                                        }
-                                        if (address.equals("")) {
-                                            address = address + new String(record, "UTF-8");
-                                        } else {
-                                            address = address + "." + new String(record, "UTF-8");
-                                        }
-                                        recLen = din.readByte();
-                                        addrLen--;
-                                    }
-                                }
-                            }
+                        data = new RecordData(aType, receiveData, receiveData.length - din.available(), addrLen);
+                        din.skipBytes(addrLen);
+                        if (aType == RecordType.NS) {
                             isNS = true;
+                            nameServers.add(data.getName().toLowerCase());
+                            nameServerZone = name;
                         }
                     }
                     authRRCount--;
-                    ResourceRecord newRR = new ResourceRecord(name, aType, TTL, address);
+                    ResourceRecord newRR = data == null ? new ResourceRecord(name, aType, TTL, address)
+                            : new ResourceRecord(name, aType, TTL, data);
                     cache.addResult(newRR);
-                    verbosePrintResourceRecord(newRR,(int) answerType);
+                    TraceBuffer.recordCached(newRR, answerType, TraceBuffer.AUTHORITY_SECTION);
                 }
             }catch(Exception e){
-                e.printStackTrace();
+                reportError("Could not decode the authority section from " + server.getHostAddress(), e);
             }
 
-            if(verboseTracing) {
-                System.out.println("Additional Information (" + addRRCount + ")");
-            }
             //decodeRR(din,addRRCount,receiveData,node, server); //decoding addRR
-            String newServer = server.getHostName();
-            boolean nsisEmpty = isNS;
             try {
                 while (addRRCount > 0) {
-                    byte pointer = din.readByte();
-                    byte location = din.readByte();
-                    String name = findDomainName(receiveData, pointer, location);
+                    String name = readDomainName(din, receiveData);
+                    RecordData data = null;
                     short answerType = din.readShort();
                     RecordType aType = RecordType.getByCode(answerType);
                     short answerClass = din.readShort();
@@ -465,10 +1170,9 @@ public class DNSLookupService {
                                 address = address + ".";
                             }
                         }
-                        if(nsisEmpty){
-                            newServer = address;
-                            nsisEmpty = false;
-                            //System.out.println("New Server = " + newServer);
+                        if (nameServers.remove(name.toLowerCase()) || gluedNameServers.contains(name.toLowerCase())) {
+                            referral.servers.add(InetAddress.getByName(address));
+                            gluedNameServers.add(name.toLowerCase());
                         }
                     } else if (answerType == (byte) 0x1c) {//it is an IPv6 format address
                         for (int i = 0; i < addrLen; i++) {
@@ -479,48 +1183,71 @@ public class DNSLookupService {
                             }
                         }
                     } else { //it is not an IP address
-                        //if(answerType == (byte) 0x02) { // it is a NS
-                        byte recLen = din.readByte();
-                        addrLen--;
-                        while (addrLen > 0) {
-                            if ((int) recLen >> 4 == -4) { //pointer
-                                byte location2 = din.readByte();
-                                address = address + "." + findDomainName(receiveData, recLen, location2);
-                                addrLen--;
-                            }else {
-                                while ((recLen > 0)) {
-                                    byte[] record = new byte[recLen];
-                                    for (int i = 0; i < recLen; i++) {
-                                        record[i] = din.readByte();
-                                        addrLen--;
-                                    }
-                                    if (address.equals("")) {
-                                        address = address + new String(record, "UTF-8");
-                                    } else {
-                                        address = address + "." + new String(record, "UTF-8");
-                                    }
-                                    recLen = din.readByte();
-                                    addrLen--;
-                                }
-                            }
-                        }
+                        data = new RecordData(aType, receiveData, receiveData.length - din.available(), addrLen);
+                        din.skipBytes(addrLen);
                     }
                     addRRCount--;
-                    ResourceRecord newRR = new ResourceRecord(name, aType, TTL, address);
+                    ResourceRecord newRR = data == null ? new ResourceRecord(name, aType, TTL, address)
+                            : new ResourceRecord(name, aType, TTL, data);
                     cache.addResult(newRR);
-                    verbosePrintResourceRecord(newRR,(int) answerType);
+                    TraceBuffer.recordCached(newRR, answerType, TraceBuffer.ADDITIONAL_SECTION);
 
                 }
-                if(isNS && !gotAns){
-                    retrieveResultsFromServer(node, InetAddress.getByName(newServer));
-                }
             }catch(Exception e){
-                e.printStackTrace();
+                reportError("Could not decode the additional section from " + server.getHostAddress(), e);
             }
 
+            if (isNS && !gotAns) {
+                // A referral must lead closer to the host name, or the server is lame for its zone
+                if (!isCloserZone(nameServerZone, zone, node.getHostName()))
+                    return ServerHealth.Failure.LAME;
+                referral.zone = nameServerZone;
+                referral.gluelessNameServers.addAll(nameServers);
+                if (!referral.servers.isEmpty())
+                    TraceBuffer.referral(node, referral.servers.get(0));
+            } else if (!gotAns && (flags & 0x0400) == 0 && (flags & 0x000F) == 0) {
+                return ServerHealth.Failure.LAME;
+            }
+
+        } catch (SocketTimeoutException e) {
+            TraceBuffer.timeout(node, server);
+            return ServerHealth.Failure.TIMEOUT;
+        } catch (IOException e) {
+            // e.g., port unreachable
+            TraceBuffer.unreachable(node, server);
+            return ServerHealth.Failure.UNREACHABLE;
         } catch (Exception e) {
-            e.printStackTrace();
+            reportError("Could not process the response from " + server.getHostAddress(), e);
         }
+        return null;
+    }
+
+    /**
+     * Prints a one-line description of an unexpected error, followed by the trace events of the
+     * current thread that led to it, if tracing is on.
+     *
+     * @param message Description of what failed.
+     * @param e       The error.
+     */
+    private static void reportError(String message, Exception e) {
+        System.err.println(message + ": " + e);
+        TraceBuffer.dumpCurrentThread(System.err);
+    }
+
+    /**
+     * Returns true if the zone of a referral is a proper subdomain of the zone of the server that
+     * sent it, and encloses the host name being searched.
+     *
+     * @param referralZone Zone of the referral (owner of its NS records).
+     * @param zone         Zone the server that sent the referral was delegated.
+     * @param hostName     Host name being searched.
+     * @return true if the referral leads closer to the host name.
+     */
+    private static boolean isCloserZone(String referralZone, String zone, String hostName) {
+        String child = referralZone.toLowerCase(), parent = zone.toLowerCase(), host = hostName.toLowerCase();
+        if (child.length() <= parent.length()) return false;
+        if (!parent.isEmpty() && !child.endsWith("." + parent)) return false;
+        return host.equals(child) || host.endsWith("." + child);
     }
 
 //    private static void decodeRR(DataInputStream din, int RRCount, byte[] receiveData, DNSNode node, InetAddress server){
@@ -589,41 +1316,17 @@ public class DNSLookupService {
 //    }
 
     /**
-     * @param packet       The DNS response
-     * @param pointerPart1 1st part of the pointer
-     * @param pointerPart2 2nd part of the pointer
+     * Reads a domain name, possibly compressed with pointers, from the current position of a
+     * stream over a DNS response, and advances the stream past the name.
+     *
+     * @param din    Stream over the DNS response
+     * @param packet The DNS response
      * @return string  The domain name
      */
-    private static String findDomainName(byte[] packet, byte pointerPart1, byte pointerPart2) {
-        int offset1 = ((int) pointerPart1 & 0x0f) << 8 ;
-        int offset2 = Integer.valueOf(String.format("%x", pointerPart2), 16);
-        int offset = offset1 + offset2;
-        if (offset < 0) {
-            offset *= -1;
-        }
-        String res = "";
-        int curr = offset;
-        int firstHex = packet[curr] >> 4;
-        if (firstHex == -4) {
-            return findDomainName(packet, packet[offset], packet[offset + 1]);
-        } else {
-            while (packet[curr] != 0) {
-                if ((int) packet[curr] >> 4 == -4){
-                    res += "." + findDomainName(packet, packet[curr], packet[curr+1]);
-                    break;
-                }
-                else {
-                    if (packet[curr] < 0x0f) {
-                        res = res + ".";
-                    } else {
-                        res = res + ((char) (int) packet[curr]);
-                    }
-                }
-                curr++;
-
-            }
-            return res.substring(1);
-        }
+    private static String readDomainName(DataInputStream din, byte[] packet) throws IOException {
+        int offset = packet.length - din.available();
+        din.skipBytes(RecordData.skipName(packet, offset) - offset);
+        return RecordData.readName(packet, offset);
     }
 
 
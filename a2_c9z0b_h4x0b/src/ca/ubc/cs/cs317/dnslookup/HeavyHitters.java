@@ -0,0 +1,148 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.*;
+
+/** A space-bounded estimate of how often (or how much) each key occurred, together with the keys
+ * that occurred the most. Counts are kept in a Count-Min sketch: a fixed number of rows of
+ * counters, where each key is added to one counter per row (chosen by a different hash in each
+ * row) and estimated as the minimum of its counters. Estimates never undercount, and overcount
+ * only when keys collide in every row, so memory use does not depend on the number of keys.
+ *
+ * The heaviest keys seen so far are tracked in a min-heap of bounded size. A key replaces the
+ * lightest tracked key once its estimate exceeds it. The heap is updated lazily: the estimate of
+ * a tracked key is updated in a map, and the heap entry is only refreshed when it reaches the
+ * top of the heap, so that adding a tracked key does not reorder the heap.
+ *
+ * @param <K> Type of the keys, which must implement hashCode() and equals().
+ */
+public class HeavyHitters<K> {
+
+    // Odd multipliers, so that multiplying a hash code by a seed loses no bits
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xD3A2646D};
+
+    private long[][] counters;
+    private int mask;
+    private int capacity;
+    private long total = 0;
+
+    private Map<K, Long> heaviest = new HashMap<>();
+    private PriorityQueue<Candidate<K>> heap = new PriorityQueue<>(Comparator.comparingLong(c -> c.count));
+
+    /** A tracked key, with its estimate when it was (last) added to the heap. */
+    private static class Candidate<K> {
+        private final K key;
+        private final long count;
+
+        private Candidate(K key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    /** Creates an empty sketch.
+     *
+     * @param width    Number of counters per row, rounded up to a power of two.
+     * @param depth    Number of rows (at most 6).
+     * @param capacity Number of heaviest keys to be tracked, or 0 to only keep estimates.
+     */
+    public HeavyHitters(int width, int depth, int capacity) {
+        this.counters = new long[Math.min(depth, SEEDS.length)][Integer.highestOneBit(Math.max(width - 1, 1)) << 1];
+        this.mask = counters[0].length - 1;
+        this.capacity = capacity;
+    }
+
+    /** Adds an occurrence of a key.
+     *
+     * @param key    Key that occurred.
+     * @param weight Weight of the occurrence (e.g., 1 to count occurrences, or a duration).
+     * @return The estimated total weight of the key, including this occurrence.
+     */
+    public synchronized long add(K key, long weight) {
+
+        int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < counters.length; row++) {
+            long[] counter = counters[row];
+            int index = mix(hash * SEEDS[row]) & mask;
+            counter[index] += weight;
+            estimate = Math.min(estimate, counter[index]);
+        }
+        total += weight;
+
+        if (capacity == 0) return estimate;
+        if (heaviest.containsKey(key)) {
+            heaviest.put(key, estimate);
+        } else if (heaviest.size() < capacity) {
+            heaviest.put(key, estimate);
+            heap.add(new Candidate<>(key, estimate));
+        } else if (estimate > lightest()) {
+            heaviest.remove(heap.poll().key);
+            heaviest.put(key, estimate);
+            heap.add(new Candidate<>(key, estimate));
+        }
+        return estimate;
+    }
+
+    /** Returns the estimate of the lightest tracked key, refreshing stale heap entries until the
+     * top of the heap reflects its current estimate. Estimates only grow, so this terminates.
+     */
+    private long lightest() {
+        while (true) {
+            Candidate<K> top = heap.peek();
+            long current = heaviest.get(top.key);
+            if (current == top.count) return current;
+            heap.poll();
+            heap.add(new Candidate<>(top.key, current));
+        }
+    }
+
+    /** Returns the estimated total weight of a key, which is never lower than the actual weight.
+     *
+     * @param key Key to be estimated.
+     * @return The estimate, or 0 if the key never occurred (and collides with no other key).
+     */
+    public synchronized long estimate(K key) {
+        int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < counters.length; row++)
+            estimate = Math.min(estimate, counters[row][mix(hash * SEEDS[row]) & mask]);
+        return estimate;
+    }
+
+    /** Returns the total weight of all occurrences added. */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /** Returns the heaviest keys tracked, heaviest first.
+     *
+     * @param n Maximum number of keys returned; no keys are returned if it is not positive.
+     * @return A potentially empty list of keys and their estimated weights.
+     */
+    public synchronized List<Map.Entry<K, Long>> top(int n) {
+        List<Map.Entry<K, Long>> entries = new ArrayList<>(heaviest.size());
+        for (Map.Entry<K, Long> entry : heaviest.entrySet())
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+        entries.sort(Map.Entry.<K, Long>comparingByValue().reversed());
+        return entries.subList(0, Math.max(0, Math.min(n, entries.size())));
+    }
+
+    /** Removes all occurrences and tracked keys. */
+    public synchronized void clear() {
+        for (long[] row : counters)
+            Arrays.fill(row, 0);
+        total = 0;
+        heaviest.clear();
+        heap.clear();
+    }
+
+    /** Final mixing step of MurmurHash3, so that each row spreads related hash codes differently. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
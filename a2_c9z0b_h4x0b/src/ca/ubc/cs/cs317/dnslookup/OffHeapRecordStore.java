@@ -0,0 +1,427 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/** Stores cached resource records outside of the Java heap, so that very large caches do not add
+ * millions of long-lived objects for the garbage collector to trace. All records of a query
+ * (host name and record type) are packed into a single block, appended to one of several direct
+ * byte buffers (slabs). A primitive open-addressing index maps the 64-bit hash of each query to
+ * the address of its block. Objects are only created at the API boundary, when records are
+ * returned.
+ *
+ * Blocks are never modified in place, except to mark them dead: adding a record to a query
+ * appends a new block containing the query's valid records, and the old block becomes dead, as do
+ * blocks whose records have all expired. Once a slab is mostly dead, its remaining live blocks are
+ * moved to the current slab and the slab is reused.
+ *
+ * Each block has the following layout:
+ * <pre>
+ *     int   length of the block, in bytes
+ *     byte  1 if the block is live, 0 if it is dead
+ *     long  hash of the query
+ *     long  latest expiration time of its records
+ *     short record type code
+ *     short length of the host name, followed by the host name (UTF-8)
+ *     short number of records, followed by each record:
+ *           long  expiration time (milliseconds since the epoch)
+ *           short length of the textual result, followed by the textual result (UTF-8)
+ * </pre>
+ * This class is not thread-safe; DNSCache synchronizes all accesses.
+ */
+public class OffHeapRecordStore {
+
+    private static final int SLAB_SIZE = 16 << 20;
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 16;
+    private static final long EMPTY = -1;
+    private static final long REMOVED = -2;
+
+    private static final int LIVE_OFFSET = 4;
+    private static final int HASH_OFFSET = 5;
+    private static final int EXPIRATION_OFFSET = 13;
+    private static final int TYPE_OFFSET = 21;
+    private static final int HOST_OFFSET = 23;
+
+    private List<ByteBuffer> slabs = new ArrayList<>();
+    private List<Integer> deadBytes = new ArrayList<>();
+    private Deque<Integer> freeSlabs = new ArrayDeque<>();
+    private int currentSlab = -1;
+
+    private long[] indexHashes = new long[INITIAL_INDEX_CAPACITY];
+    private long[] indexAddresses = new long[INITIAL_INDEX_CAPACITY];
+    private int indexSize = 0;
+    private int indexUsed = 0;
+
+    private int liveBlocks = 0;
+
+    public OffHeapRecordStore() {
+        Arrays.fill(indexAddresses, EMPTY);
+    }
+
+    /** Returns the valid records cached for a query, removing the query if all its records expired.
+     *
+     * @param node DNS query (host name and record type).
+     * @return A potentially empty set of records.
+     */
+    public Set<ResourceRecord> get(DNSNode node) {
+        int slot = find(node, hash(node));
+        if (slot < 0) return Collections.emptySet();
+
+        long address = indexAddresses[slot];
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        long now = System.currentTimeMillis();
+        if (slab.getLong(offset + EXPIRATION_OFFSET) <= now) {
+            remove(slot);
+            return Collections.emptySet();
+        }
+
+        Set<ResourceRecord> results = new HashSet<>();
+        readRecords(slab, offset, now, (hostName, record) -> results.add(record));
+        return results;
+    }
+
+    /** Adds a record. If an equivalent record (same query and textual result) is already stored,
+     * the record that expires last is kept.
+     *
+     * @param record The record to be added.
+     */
+    public void add(ResourceRecord record) {
+        DNSNode node = record.getNode();
+        long hash = hash(node);
+        int slot = find(node, hash);
+        long now = System.currentTimeMillis();
+
+        List<ResourceRecord> records = new ArrayList<>();
+        if (slot >= 0) {
+            long address = indexAddresses[slot];
+            readRecords(slabs.get(slabOf(address)), offsetOf(address), now, (hostName, old) -> records.add(old));
+            int existing = records.indexOf(record);
+            if (existing >= 0) {
+                if (!records.get(existing).expiresBefore(record)) return;
+                records.set(existing, record);
+            } else
+                records.add(record);
+        } else
+            records.add(record);
+
+        long address = writeBlock(node, hash, records);
+        if (address == EMPTY) return; // too many records for a single block
+        // Allocating the block may have compacted the store, which moves live blocks and removes
+        // expired ones (possibly the old block of this query), so the slot is looked up again
+        slot = find(node, hash);
+        if (slot >= 0) {
+            markDead(indexAddresses[slot]);
+            indexAddresses[slot] = address;
+        } else
+            insert(hash, address);
+        liveBlocks++;
+    }
+
+    /** Performs an action for each valid record, in no particular order. Records of the same query
+     * are passed consecutively.
+     *
+     * @param consumer Action to be performed for each query and record.
+     */
+    public void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
+        long now = System.currentTimeMillis();
+        for (ByteBuffer slab : slabs) {
+            for (int offset = 0; offset < slab.position(); offset += slab.getInt(offset))
+                if (slab.get(offset + LIVE_OFFSET) != 0 && slab.getLong(offset + EXPIRATION_OFFSET) > now)
+                    readRecords(slab, offset, now, (hostName, record) -> consumer.accept(record.getNode(), record));
+        }
+    }
+
+    /** Copies the live blocks that hold valid records into buffers on the heap, one per slab.
+     * Copying bytes is much cheaper than creating the records, so a caller may copy the blocks
+     * while holding a lock, and decode them with forEachRecord(blocks, consumer) after releasing it.
+     *
+     * @return A list of buffers, each holding a sequence of complete blocks.
+     */
+    public List<ByteBuffer> copyBlocks() {
+        long now = System.currentTimeMillis();
+        List<ByteBuffer> copies = new ArrayList<>(slabs.size());
+        for (ByteBuffer slab : slabs) {
+            int live = 0;
+            for (int offset = 0; offset < slab.position(); offset += slab.getInt(offset))
+                if (slab.get(offset + LIVE_OFFSET) != 0 && slab.getLong(offset + EXPIRATION_OFFSET) > now)
+                    live += slab.getInt(offset);
+            if (live == 0) continue;
+
+            ByteBuffer copy = ByteBuffer.allocate(live);
+            for (int offset = 0; offset < slab.position(); offset += slab.getInt(offset))
+                if (slab.get(offset + LIVE_OFFSET) != 0 && slab.getLong(offset + EXPIRATION_OFFSET) > now)
+                    copy.put(slab.duplicate().position(offset).limit(offset + slab.getInt(offset)));
+            copies.add(copy.flip());
+        }
+        return copies;
+    }
+
+    /** Performs an action for each valid record of blocks copied with copyBlocks(). Records of the
+     * same query are passed consecutively.
+     *
+     * @param blocks   Buffers returned by copyBlocks().
+     * @param consumer Action to be performed for each query and record.
+     */
+    public static void forEachRecord(List<ByteBuffer> blocks, BiConsumer<DNSNode, ResourceRecord> consumer) {
+        long now = System.currentTimeMillis();
+        for (ByteBuffer copy : blocks)
+            for (int offset = 0; offset < copy.limit(); offset += copy.getInt(offset))
+                readRecords(copy, offset, now, (hostName, record) -> consumer.accept(record.getNode(), record));
+    }
+
+    /** Returns the number of queries with live blocks in the store. */
+    public int size() {
+        return liveBlocks;
+    }
+
+    /** Returns the number of bytes of off-heap memory reserved for slabs. */
+    public long getReservedBytes() {
+        long reserved = 0;
+        for (ByteBuffer slab : slabs)
+            reserved += slab.capacity();
+        return reserved;
+    }
+
+    /** Moves the live blocks of every slab that is mostly dead (including blocks that only hold
+     * expired records) into the current slab, so that the slab may be reused.
+     */
+    public void compact() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < slabs.size(); i++) {
+            ByteBuffer slab = slabs.get(i);
+            if (i == currentSlab || slab.position() == 0) continue;
+
+            // Expired blocks are only found by scanning, since lookups may never touch them again
+            for (int offset = 0; offset < slab.position(); offset += slab.getInt(offset))
+                if (slab.get(offset + LIVE_OFFSET) != 0 && slab.getLong(offset + EXPIRATION_OFFSET) <= now) {
+                    int slot = findAddress(slab.getLong(offset + HASH_OFFSET), address(i, offset));
+                    if (slot >= 0) remove(slot);
+                }
+
+            if (deadBytes.get(i) * 2 >= slab.position())
+                evacuate(i);
+        }
+    }
+
+    private void evacuate(int slabIndex) {
+        ByteBuffer slab = slabs.get(slabIndex);
+        for (int offset = 0; offset < slab.position(); offset += slab.getInt(offset)) {
+            if (slab.get(offset + LIVE_OFFSET) == 0) continue;
+            int length = slab.getInt(offset);
+            int slot = findAddress(slab.getLong(offset + HASH_OFFSET), address(slabIndex, offset));
+            long target = allocate(length, slabIndex);
+            ByteBuffer targetSlab = slabs.get(slabOf(target));
+            for (int i = 0; i < length; i++)
+                targetSlab.put(offsetOf(target) + i, slab.get(offset + i));
+            indexAddresses[slot] = target;
+        }
+        slab.clear();
+        deadBytes.set(slabIndex, 0);
+        freeSlabs.push(slabIndex);
+    }
+
+    private static void readRecords(ByteBuffer slab, int offset, long now, BiConsumer<String, ResourceRecord> consumer) {
+        RecordType type = RecordType.getByCode(slab.getShort(offset + TYPE_OFFSET));
+        int hostLength = slab.getShort(offset + HOST_OFFSET);
+        String hostName = readString(slab, offset + HOST_OFFSET + 2, hostLength);
+        int position = offset + HOST_OFFSET + 2 + hostLength;
+        int count = slab.getShort(position);
+        position += 2;
+        for (int i = 0; i < count; i++) {
+            long expiration = slab.getLong(position);
+            int textLength = slab.getShort(position + 8) & 0xFFFF;
+            if (expiration > now)
+                consumer.accept(hostName, new ResourceRecord(hostName, type, new Date(expiration),
+                        readString(slab, position + 10, textLength)));
+            position += 10 + textLength;
+        }
+    }
+
+    private long writeBlock(DNSNode node, long hash, List<ResourceRecord> records) {
+        byte[] hostName = node.getHostName().getBytes(StandardCharsets.UTF_8);
+        byte[][] texts = new byte[records.size()][];
+        int length = HOST_OFFSET + 2 + hostName.length + 2;
+        long expiration = 0;
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = records.get(i).getTextResult().getBytes(StandardCharsets.UTF_8);
+            if (texts[i].length > 0xFFFF) return EMPTY;
+            length += 10 + texts[i].length;
+            expiration = Math.max(expiration, records.get(i).getExpirationTime());
+        }
+        if (length > SLAB_SIZE || texts.length > Short.MAX_VALUE) return EMPTY;
+
+        long address = allocate(length, -1);
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int position = offsetOf(address);
+        slab.putInt(position, length);
+        slab.put(position + LIVE_OFFSET, (byte) 1);
+        slab.putLong(position + HASH_OFFSET, hash);
+        slab.putLong(position + EXPIRATION_OFFSET, expiration);
+        slab.putShort(position + TYPE_OFFSET, (short) node.getType().getCode());
+        slab.putShort(position + HOST_OFFSET, (short) hostName.length);
+        position = writeBytes(slab, position + HOST_OFFSET + 2, hostName);
+        slab.putShort(position, (short) texts.length);
+        position += 2;
+        for (int i = 0; i < texts.length; i++) {
+            slab.putLong(position, records.get(i).getExpirationTime());
+            slab.putShort(position + 8, (short) texts[i].length);
+            position = writeBytes(slab, position + 10, texts[i]);
+        }
+        return address;
+    }
+
+    /** Reserves space for a block in the current slab, starting a new slab (or reusing a free
+     * one) if the current slab is full.
+     *
+     * @param length  Length of the block.
+     * @param exclude Slab that must not be used (the slab being evacuated), or -1.
+     * @return Address of the reserved space.
+     */
+    private long allocate(int length, int exclude) {
+        if (exclude < 0 && currentSlab >= 0 && slabs.get(currentSlab).remaining() < length) {
+            // Reclaim mostly dead slabs (including the full one) before growing; moving their
+            // live blocks may start a new current slab
+            currentSlab = -1;
+            compact();
+        }
+        if (currentSlab < 0 || currentSlab == exclude || slabs.get(currentSlab).remaining() < length) {
+            if (!freeSlabs.isEmpty() && freeSlabs.peek() != exclude) {
+                currentSlab = freeSlabs.pop();
+            } else {
+                slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+                deadBytes.add(0);
+                currentSlab = slabs.size() - 1;
+            }
+        }
+        ByteBuffer slab = slabs.get(currentSlab);
+        int offset = slab.position();
+        slab.position(offset + length);
+        return address(currentSlab, offset);
+    }
+
+    private void markDead(long address) {
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        slab.put(offset + LIVE_OFFSET, (byte) 0);
+        deadBytes.set(slabOf(address), deadBytes.get(slabOf(address)) + slab.getInt(offset));
+        liveBlocks--;
+    }
+
+    /** Returns the index slot of a query, or -1 if the query is not stored. */
+    private int find(DNSNode node, long hash) {
+        int mask = indexHashes.length - 1;
+        for (int slot = (int) hash & mask; indexAddresses[slot] != EMPTY; slot = (slot + 1) & mask)
+            if (indexHashes[slot] == hash && indexAddresses[slot] != REMOVED && matches(indexAddresses[slot], node))
+                return slot;
+        return -1;
+    }
+
+    /** Returns the index slot pointing to a specific block, or -1 if the block is not indexed. */
+    private int findAddress(long hash, long address) {
+        int mask = indexHashes.length - 1;
+        for (int slot = (int) hash & mask; indexAddresses[slot] != EMPTY; slot = (slot + 1) & mask)
+            if (indexAddresses[slot] == address)
+                return slot;
+        return -1;
+    }
+
+    private void insert(long hash, long address) {
+        if ((indexUsed + 1) * 2 > indexHashes.length)
+            resizeIndex(indexSize * 4 > indexHashes.length ? indexHashes.length * 2 : indexHashes.length);
+        int mask = indexHashes.length - 1;
+        int slot = (int) hash & mask;
+        while (indexAddresses[slot] >= 0)
+            slot = (slot + 1) & mask;
+        if (indexAddresses[slot] == EMPTY) indexUsed++;
+        indexHashes[slot] = hash;
+        indexAddresses[slot] = address;
+        indexSize++;
+    }
+
+    private void remove(int slot) {
+        markDead(indexAddresses[slot]);
+        indexAddresses[slot] = REMOVED;
+        indexSize--;
+    }
+
+    /** Rebuilds the index with a new capacity, dropping removed slots. */
+    private void resizeIndex(int capacity) {
+        long[] hashes = indexHashes, addresses = indexAddresses;
+        indexHashes = new long[capacity];
+        indexAddresses = new long[capacity];
+        Arrays.fill(indexAddresses, EMPTY);
+        indexSize = indexUsed = 0;
+        for (int i = 0; i < hashes.length; i++)
+            if (addresses[i] >= 0) {
+                int mask = capacity - 1;
+                int slot = (int) hashes[i] & mask;
+                while (indexAddresses[slot] != EMPTY)
+                    slot = (slot + 1) & mask;
+                indexHashes[slot] = hashes[i];
+                indexAddresses[slot] = addresses[i];
+                indexSize++;
+                indexUsed++;
+            }
+    }
+
+    /** Returns true if the block at an address belongs to a query. Host names are compared
+     * ignoring (ASCII) case, as in DNSNode.compareTo().
+     */
+    private boolean matches(long address, DNSNode node) {
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        if (slab.getShort(offset + TYPE_OFFSET) != (short) node.getType().getCode()) return false;
+        String hostName = node.getHostName();
+        int length = slab.getShort(offset + HOST_OFFSET);
+        if (length != hostName.length()) {
+            // Only names with non-ASCII characters have more bytes than characters
+            return readString(slab, offset + HOST_OFFSET + 2, length).equalsIgnoreCase(hostName);
+        }
+        for (int i = 0; i < length; i++)
+            if (Character.toLowerCase((char) slab.get(offset + HOST_OFFSET + 2 + i)) !=
+                    Character.toLowerCase(hostName.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /** A 64-bit FNV-1a hash of the query, ignoring the case of the host name. */
+    private static long hash(DNSNode node) {
+        long hash = 0xcbf29ce484222325L;
+        String hostName = node.getHostName();
+        for (int i = 0; i < hostName.length(); i++) {
+            hash ^= Character.toLowerCase(hostName.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+        hash ^= node.getType().getCode();
+        hash *= 0x100000001b3L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static String readString(ByteBuffer slab, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = slab.get(offset + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int writeBytes(ByteBuffer slab, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++)
+            slab.put(offset + i, bytes[i]);
+        return offset + bytes.length;
+    }
+
+    private static long address(int slab, int offset) {
+        return (long) slab << 32 | offset;
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+}
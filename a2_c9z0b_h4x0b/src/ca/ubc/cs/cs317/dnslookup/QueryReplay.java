@@ -0,0 +1,216 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/** Replays a timestamped query log against the resolver and reports the achieved throughput,
+ * the latency distribution, the cache hit ratio over time and the number of upstream queries
+ * sent per lookup (amplification). Each line of the log has the format:
+ * <pre>
+ *     timestamp hostName [type [client]]
+ * </pre>
+ * where timestamp is expressed in seconds (fractions allowed) and type defaults to A. If the
+ * IP address of a client is given, the query is subject to admission control on behalf of that
+ * client, and rejected queries are counted separately. Lines starting with '#' are ignored.
+ *
+ * <p>Queries are issued at the original pace of the log, at a multiple of it, or as fast as
+ * possible. When paced, each query is handed to a pool of threads at its scheduled time whether
+ * or not earlier queries completed, and its latency is measured from that time, so that a slow
+ * resolver is charged for the queries waiting behind a slow lookup.
+ */
+public class QueryReplay {
+
+    private static final int REPORT_INTERVAL = 1000;
+    // Number of lookups that may be in progress at the same time
+    private static final int THREADS = 64;
+
+    private double speed;
+
+    private long[] latencies = new long[1024];
+    private int lookups = 0;
+    private int hits = 0;
+    private int failures = 0;
+    private int refused = 0;
+    private int serverFailures = 0;
+    private int windowLookups = 0;
+    private int windowHits = 0;
+
+    /** Creates a new replay session.
+     *
+     * @param speed Multiple of the original pace at which queries are issued (e.g., 2 for twice
+     *              as fast). A value of zero or less issues queries as fast as possible.
+     */
+    public QueryReplay(double speed) {
+        this.speed = speed;
+    }
+
+    /** Replays all queries in a log file, printing a progress line every REPORT_INTERVAL lookups
+     * and a summary at the end.
+     *
+     * @param fileName Name of the query log file.
+     * @param out      Stream where the report is printed.
+     * @throws IOException If the log file could not be read.
+     */
+    public void run(String fileName, PrintStream out) throws IOException {
+
+        long upstreamAtStart = DNSLookupService.getUpstreamQueryCount();
+        long wallStart = System.nanoTime();
+        double logStart = Double.NaN;
+        boolean paced = speed > 0;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Unpaced queries are issued as soon as a thread is free to send them
+        Semaphore freeThreads = new Semaphore(THREADS);
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] fields = line.split("\\s+");
+                double timestamp;
+                RecordType type = RecordType.A;
+                InetAddress client = null;
+                try {
+                    timestamp = Double.parseDouble(fields[0]);
+                    if (fields.length < 2) throw new IllegalArgumentException();
+                    if (fields.length > 2) type = RecordType.valueOf(fields[2].toUpperCase());
+                    if (fields.length > 3) client = InetAddress.getByName(fields[3]);
+                } catch (IllegalArgumentException | IOException ex) {
+                    out.println("Skipping invalid log line " + lineNumber + ": " + line);
+                    continue;
+                }
+
+                if (Double.isNaN(logStart)) logStart = timestamp;
+                long scheduled;
+                if (paced) {
+                    scheduled = wallStart + (long) ((timestamp - logStart) / speed * 1e9);
+                    waitUntil(scheduled);
+                } else {
+                    freeThreads.acquireUninterruptibly();
+                    scheduled = System.nanoTime();
+                }
+
+                DNSNode node = new DNSNode(fields[1], type);
+                InetAddress queryClient = client;
+                executor.execute(() -> {
+                    try {
+                        replay(node, queryClient, scheduled, out);
+                    } finally {
+                        if (!paced) freeThreads.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // Wait for the lookups still in progress
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
+
+        printSummary(out, System.nanoTime() - wallStart,
+                DNSLookupService.getUpstreamQueryCount() - upstreamAtStart);
+    }
+
+    /** Performs a single lookup of the log and records its outcome.
+     *
+     * @param node      Host name and record type to be looked up.
+     * @param client    Client the query is made for, or null.
+     * @param scheduled Time (as given by System.nanoTime) at which the query was due to be issued.
+     * @param out       Stream where progress is printed.
+     */
+    private void replay(DNSNode node, InetAddress client, long scheduled, PrintStream out) {
+        boolean answered = false, rejected = false, hit = false;
+        AdmissionControl.Decision decision = null;
+        try {
+            answered = !(client == null ? DNSLookupService.lookup(node) :
+                    DNSLookupService.lookup(node, client)).isEmpty();
+            hit = DNSLookupService.wasCacheHit();
+        } catch (AdmissionControl.RejectedException ex) {
+            rejected = true;
+            decision = ex.getDecision();
+        }
+        long latency = System.nanoTime() - scheduled;
+
+        synchronized (this) {
+            recordLatency(latency);
+            if (rejected) {
+                if (decision == AdmissionControl.Decision.REFUSED) refused++;
+                else serverFailures++;
+            } else if (!answered) failures++;
+            if (hit) {
+                hits++;
+                windowHits++;
+            }
+            windowLookups++;
+
+            if (windowLookups == REPORT_INTERVAL) {
+                out.printf("%8d lookups  window hit ratio %5.1f%%\n", lookups,
+                        100.0 * windowHits / windowLookups);
+                windowLookups = windowHits = 0;
+            }
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        if (lookups == latencies.length)
+            latencies = Arrays.copyOf(latencies, lookups * 2);
+        latencies[lookups++] = nanos;
+    }
+
+    private synchronized void printSummary(PrintStream out, long elapsed, long upstream) {
+        if (lookups == 0) {
+            out.println("No queries replayed.");
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, lookups);
+        Arrays.sort(sorted);
+
+        out.printf("Replayed %d lookups in %.3f s (%.1f qps), %d unanswered\n", lookups,
+                elapsed / 1e9, lookups / (elapsed / 1e9), failures);
+        out.printf("Latency (ms): p50 %.3f  p90 %.3f  p99 %.3f  max %.3f\n",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                sorted[lookups - 1] / 1e6);
+        if (refused + serverFailures > 0)
+            out.printf("Rejected by admission control: %d refused, %d failed fast (SERVFAIL)\n",
+                    refused, serverFailures);
+        out.printf("Cache hit ratio: %.1f%%\n", 100.0 * hits / lookups);
+        out.printf("Upstream queries: %d (%.2f per lookup)\n", upstream, (double) upstream / lookups);
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
@@ -0,0 +1,415 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A typed view over the rdata of a resource record. The rdata is copied out of the DNS response
+ * the record was obtained from, with compressed domain names expanded, so that the view does not
+ * keep the response alive; no field is decoded when the view is created, and each accessor
+ * decodes only the field it returns. Two views are equal if they have the same type and the same
+ * (expanded) rdata bytes. Accessors are only meaningful for the record types listed in their
+ * description.
+ */
+public class RecordData {
+
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private RecordType type;
+    private byte[] data;
+
+    /** Creates a view over the rdata of a record.
+     *
+     * @param type   Type of the record.
+     * @param packet The DNS response containing the record.
+     * @param offset Position of the first byte of the rdata in the response.
+     * @param length Length of the rdata, in bytes.
+     * @throws IllegalArgumentException If the rdata does not fit in the response, or contains a
+     *                                  malformed domain name.
+     */
+    public RecordData(RecordType type, byte[] packet, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > packet.length)
+            throw new IllegalArgumentException("Record data extends past the end of the packet");
+        this.type = type;
+        int end = offset + length;
+        switch (type) {
+            case NS:
+            case CNAME:
+            case DNAME:
+            case PTR:
+                this.data = expand(packet, offset, end, 0, 1, 0);
+                break;
+            case MX:
+                this.data = expand(packet, offset, end, 2, 1, 0);
+                break;
+            case SOA:
+                this.data = expand(packet, offset, end, 0, 2, 20);
+                break;
+            case SRV:
+                this.data = expand(packet, offset, end, 6, 1, 0);
+                break;
+            case TXT:
+                for (int position = offset; position < end; position += (packet[position] & 0xFF) + 1)
+                    if (position + (packet[position] & 0xFF) + 1 > end)
+                        throw new IllegalArgumentException("Character string extends past the record data");
+                // fall through
+            default:
+                this.data = Arrays.copyOfRange(packet, offset, end);
+        }
+    }
+
+    private RecordData(RecordType type, byte[] data) {
+        this.type = type;
+        this.data = data;
+    }
+
+    /** Encodes rdata in its textual representation (as returned by toString()) into a view, so
+     * that records read from files or snapshots may be compared with records obtained from
+     * servers without decoding the latter.
+     *
+     * @param type Type of the record.
+     * @param text Textual representation of the rdata.
+     * @return The view, or null if the text is not a valid representation of rdata of that type
+     *         (address records are never represented by a view).
+     */
+    public static RecordData fromText(RecordType type, String text) {
+        if (text == null || type == RecordType.A || type == RecordType.AAAA) return null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream(text.length() + 16);
+        String[] fields = text.trim().split(" +");
+        try {
+            switch (type) {
+                case NS:
+                case CNAME:
+                case DNAME:
+                case PTR:
+                    if (fields.length != 1) return null;
+                    encodeName(fields[0], data);
+                    break;
+                case MX:
+                    if (fields.length != 2) return null;
+                    encodeNumber(fields[0], 2, data);
+                    encodeName(fields[1], data);
+                    break;
+                case SOA:
+                    if (fields.length != 7) return null;
+                    encodeName(fields[0], data);
+                    encodeName(fields[1], data);
+                    for (int i = 2; i < 7; i++)
+                        encodeNumber(fields[i], 4, data);
+                    break;
+                case SRV:
+                    if (fields.length != 4) return null;
+                    for (int i = 0; i < 3; i++)
+                        encodeNumber(fields[i], 2, data);
+                    encodeName(fields[3], data);
+                    break;
+                case TXT:
+                    encodeStrings(text.trim(), data);
+                    break;
+                default:
+                    // Generic representation: \# length hex
+                    if (fields.length < 2 || !fields[0].equals("\\#")) return null;
+                    String hex = String.join("", Arrays.asList(fields).subList(2, fields.length));
+                    if (hex.length() != 2 * Integer.parseInt(fields[1])) return null;
+                    for (int i = 0; i < hex.length(); i += 2)
+                        data.write(Integer.parseInt(hex.substring(i, i + 2), 16));
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return new RecordData(type, data.toByteArray());
+    }
+
+    /** Writes a domain name (with or without a trailing dot) in uncompressed wire format. */
+    private static void encodeName(String name, ByteArrayOutputStream data) {
+        if (name.endsWith(".")) name = name.substring(0, name.length() - 1);
+        int encodedLength = 1;
+        if (!name.isEmpty())
+            for (String label : name.split("\\.", -1)) {
+                byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length == 0 || bytes.length > 63)
+                    throw new IllegalArgumentException("Invalid label in domain name");
+                encodedLength += bytes.length + 1;
+                data.write(bytes.length);
+                data.write(bytes, 0, bytes.length);
+            }
+        if (encodedLength > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Domain name longer than " + MAX_NAME_LENGTH + " bytes");
+        data.write(0);
+    }
+
+    /** Writes an unsigned decimal number as a big-endian field of a number of bytes. */
+    private static void encodeNumber(String field, int bytes, ByteArrayOutputStream data) {
+        long value = Long.parseLong(field);
+        if (value < 0 || value >= 1L << (8 * bytes))
+            throw new NumberFormatException("Value out of range: " + field);
+        for (int shift = 8 * (bytes - 1); shift >= 0; shift -= 8)
+            data.write((int) (value >> shift));
+    }
+
+    /** Writes the quoted, space-separated character strings of a TXT record, where backslashes
+     * escape the next character.
+     */
+    private static void encodeStrings(String text, ByteArrayOutputStream data) {
+        StringBuilder string = new StringBuilder();
+        for (int position = 0; position < text.length(); ) {
+            if (text.charAt(position) == ' ') {
+                position++;
+                continue;
+            }
+            if (text.charAt(position++) != '"')
+                throw new IllegalArgumentException("Character string not quoted");
+            string.setLength(0);
+            while (true) {
+                if (position >= text.length())
+                    throw new IllegalArgumentException("Unterminated character string");
+                char c = text.charAt(position++);
+                if (c == '"') break;
+                if (c == '\\' && position < text.length()) c = text.charAt(position++);
+                string.append(c);
+            }
+            byte[] bytes = string.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 255)
+                throw new IllegalArgumentException("Character string longer than 255 bytes");
+            data.write(bytes.length);
+            data.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /** Copies rdata made of fixed-size fields, domain names and further fixed-size fields, in that
+     * order, expanding the compressed names.
+     */
+    private static byte[] expand(byte[] packet, int offset, int end, int fixedBefore, int names, int fixedAfter) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(end - offset + 32);
+        int position = offset + fixedBefore;
+        if (position > end) throw new IllegalArgumentException("Record data too short");
+        data.write(packet, offset, fixedBefore);
+        for (int i = 0; i < names; i++) {
+            decodeName(packet, position, null, data);
+            position = skipName(packet, position);
+            if (position > end) throw new IllegalArgumentException("Domain name extends past the record data");
+        }
+        if (position + fixedAfter > end) throw new IllegalArgumentException("Record data too short");
+        data.write(packet, position, fixedAfter);
+        return data.toByteArray();
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public int getLength() {
+        return data.length;
+    }
+
+    /** Returns the domain name in the rdata of NS, CNAME, DNAME and PTR records. */
+    public String getName() {
+        return readName(data, 0);
+    }
+
+    /** Returns the preference of an MX record. */
+    public int getPreference() {
+        return readUnsignedShort(0);
+    }
+
+    /** Returns the mail exchange host name of an MX record. */
+    public String getExchange() {
+        return readName(data, 2);
+    }
+
+    /** Returns the primary name server (MNAME) of an SOA record. */
+    public String getPrimaryNameServer() {
+        return readName(data, 0);
+    }
+
+    /** Returns the mailbox of the person responsible for the zone (RNAME) of an SOA record. */
+    public String getResponsibleMailbox() {
+        return readName(data, skipName(data, 0));
+    }
+
+    /** Returns the serial number of an SOA record. */
+    public long getSerial() {
+        return readSOAField(0);
+    }
+
+    /** Returns the refresh interval, in seconds, of an SOA record. */
+    public long getRefresh() {
+        return readSOAField(1);
+    }
+
+    /** Returns the retry interval, in seconds, of an SOA record. */
+    public long getRetry() {
+        return readSOAField(2);
+    }
+
+    /** Returns the expiration limit, in seconds, of an SOA record. */
+    public long getExpire() {
+        return readSOAField(3);
+    }
+
+    /** Returns the minimum TTL (used for negative caching) of an SOA record. */
+    public long getMinimum() {
+        return readSOAField(4);
+    }
+
+    /** Returns the character strings of a TXT record. */
+    public List<String> getStrings() {
+        List<String> strings = new ArrayList<>();
+        for (int position = 0; position < data.length; position += (data[position] & 0xFF) + 1)
+            strings.add(new String(data, position + 1, data[position] & 0xFF, StandardCharsets.UTF_8));
+        return strings;
+    }
+
+    /** Returns the priority of an SRV record. */
+    public int getPriority() {
+        return readUnsignedShort(0);
+    }
+
+    /** Returns the weight of an SRV record. */
+    public int getWeight() {
+        return readUnsignedShort(2);
+    }
+
+    /** Returns the port of an SRV record. */
+    public int getPort() {
+        return readUnsignedShort(4);
+    }
+
+    /** Returns the target host name of an SRV record. */
+    public String getTarget() {
+        return readName(data, 6);
+    }
+
+    /** Returns the rdata in its textual (master file) representation. Record types without a
+     * typed decoder use the generic representation for unknown types (RFC 3597).
+     */
+    @Override
+    public String toString() {
+        switch (type) {
+            case NS:
+            case CNAME:
+            case DNAME:
+            case PTR:
+                return getName();
+            case MX:
+                return getPreference() + " " + getExchange();
+            case SOA:
+                return getPrimaryNameServer() + " " + getResponsibleMailbox() + " " + getSerial() + " " +
+                        getRefresh() + " " + getRetry() + " " + getExpire() + " " + getMinimum();
+            case TXT:
+                StringBuilder text = new StringBuilder();
+                for (String string : getStrings()) {
+                    if (text.length() > 0) text.append(' ');
+                    text.append('"').append(string.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                }
+                return text.toString();
+            case SRV:
+                return getPriority() + " " + getWeight() + " " + getPort() + " " + getTarget();
+            default:
+                StringBuilder hex = new StringBuilder("\\# ").append(data.length);
+                if (data.length > 0) hex.append(' ');
+                for (int i = 0; i < data.length; i++)
+                    hex.append(String.format("%02x", data[i]));
+                return hex.toString();
+        }
+    }
+
+    private int readUnsignedShort(int position) {
+        return ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+    }
+
+    private long readSOAField(int index) {
+        int position = skipName(data, skipName(data, 0)) + 4 * index;
+        return ((long) readUnsignedShort(position) << 16) | readUnsignedShort(position + 2);
+    }
+
+    /** Decodes a domain name, possibly compressed with pointers, starting at a given position of a
+     * DNS packet.
+     *
+     * @param packet The DNS packet.
+     * @param offset Position of the first label of the name.
+     * @return The domain name, without a trailing dot (empty for the root).
+     */
+    static String readName(byte[] packet, int offset) {
+        StringBuilder name = new StringBuilder();
+        decodeName(packet, offset, name, null);
+        return name.toString();
+    }
+
+    /** Follows the labels of a domain name, possibly compressed with pointers, appending them to
+     * a string and/or writing them uncompressed. Pointers must lead to an earlier position than
+     * the labels they follow, which rules out loops.
+     *
+     * @param packet The DNS packet.
+     * @param offset Position of the first label of the name.
+     * @param name   Where the labels are appended, separated by dots, or null.
+     * @param wire   Where the uncompressed name is written, or null.
+     * @throws IllegalArgumentException If the name is malformed.
+     */
+    private static void decodeName(byte[] packet, int offset, StringBuilder name, ByteArrayOutputStream wire) {
+        int start = offset;
+        int encodedLength = 1;
+        while (true) {
+            if (offset >= packet.length)
+                throw new IllegalArgumentException("Domain name extends past the end of the packet");
+            int label = packet[offset] & 0xFF;
+            if (label == 0) break;
+            if ((label & 0xC0) == 0xC0) {
+                if (offset + 1 >= packet.length)
+                    throw new IllegalArgumentException("Domain name extends past the end of the packet");
+                int target = ((label & 0x3F) << 8) | (packet[offset + 1] & 0xFF);
+                if (target >= start)
+                    throw new IllegalArgumentException("Compression pointer does not point backwards");
+                offset = start = target;
+                continue;
+            }
+            if ((label & 0xC0) != 0)
+                throw new IllegalArgumentException("Unsupported label type in domain name");
+            if (offset + label + 1 > packet.length)
+                throw new IllegalArgumentException("Domain name extends past the end of the packet");
+            encodedLength += label + 1;
+            if (encodedLength > MAX_NAME_LENGTH)
+                throw new IllegalArgumentException("Domain name longer than " + MAX_NAME_LENGTH + " bytes");
+            if (name != null) {
+                if (name.length() > 0) name.append('.');
+                name.append(new String(packet, offset + 1, label, StandardCharsets.UTF_8));
+            }
+            if (wire != null) wire.write(packet, offset, label + 1);
+            offset += label + 1;
+        }
+        if (wire != null) wire.write(0);
+    }
+
+    /** Returns the position right after an encoded domain name, without following pointers.
+     *
+     * @param packet The DNS packet.
+     * @param offset Position of the first label of the name.
+     * @return The position of the first byte after the name.
+     */
+    static int skipName(byte[] packet, int offset) {
+        while (offset < packet.length && packet[offset] != 0) {
+            if ((packet[offset] & 0xC0) == 0xC0)
+                return offset + 2;
+            offset += (packet[offset] & 0xFF) + 1;
+        }
+        if (offset >= packet.length)
+            throw new IllegalArgumentException("Domain name extends past the end of the packet");
+        return offset + 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        RecordData data = (RecordData) o;
+        return type == data.type && Arrays.equals(this.data, data.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + Arrays.hashCode(data);
+    }
+}
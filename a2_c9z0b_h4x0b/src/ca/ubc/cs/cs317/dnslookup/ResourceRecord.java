@@ -5,9 +5,10 @@ import java.net.InetAddress;
 import java.util.Date;
 
 /** A resource record corresponds to each individual result returned by a DNS response. It links
- * a DNS node (host name and record type) to either an IP address (e.g., A or AAAA records) or
- * a textual response (e.g., CNAME or NS records). A TTL (time-to-live) field is also specified,
- * and is represented by an expiration time calculated as a delta from the current time.
+ * a DNS node (host name and record type) to either an IP address (e.g., A or AAAA records),
+ * a textual response (e.g., CNAME or NS records) or a typed view over the record data in the
+ * response (e.g., MX or SRV records). A TTL (time-to-live) field is also specified, and is
+ * represented by an expiration time calculated as a delta from the current time.
  */
 public class ResourceRecord implements Serializable {
 
@@ -15,6 +16,11 @@ public class ResourceRecord implements Serializable {
     private Date expirationTime;
     private String textResult;
     private InetAddress inetResult;
+    private transient RecordData dataResult;
+    // The textual result encoded as record data, so that it can be compared with records created
+    // from a view; only computed when the record is compared
+    private transient RecordData encodedResult;
+    private transient boolean encoded = false;
 
     public ResourceRecord(String hostName, RecordType type, long ttl, String result) {
         this.node = new DNSNode(hostName, type);
@@ -23,11 +29,29 @@ public class ResourceRecord implements Serializable {
         this.inetResult = null;
     }
 
+    /** Creates a record that expires at a specific time, instead of after a TTL. This may be
+     * used for records loaded from files, including records that should never expire.
+     */
+    public ResourceRecord(String hostName, RecordType type, Date expirationTime, String result) {
+        this.node = new DNSNode(hostName, type);
+        this.expirationTime = expirationTime;
+        this.textResult = result;
+        this.inetResult = null;
+    }
+
     public ResourceRecord(String hostName, RecordType type, long ttl, InetAddress result) {
         this(hostName, type, ttl, result.getHostAddress());
         this.inetResult = result;
     }
 
+    /** Creates a record whose result is a view over the record data in a DNS response. The
+     * textual result is only decoded from the view when it is first needed.
+     */
+    public ResourceRecord(String hostName, RecordType type, long ttl, RecordData result) {
+        this(hostName, type, ttl, (String) null);
+        this.dataResult = result;
+    }
+
     public DNSNode getNode() {
         return node;
     }
@@ -73,7 +97,17 @@ public class ResourceRecord implements Serializable {
         return this.expirationTime.before(record.expirationTime);
     }
 
+    /** Returns the time at which this record expires, in milliseconds since the epoch.
+     *
+     * @return The expiration time of this record.
+     */
+    public long getExpirationTime() {
+        return expirationTime.getTime();
+    }
+
     public String getTextResult() {
+        if (textResult == null)
+            textResult = dataResult != null ? dataResult.toString() : "";
         return textResult;
     }
 
@@ -81,6 +115,13 @@ public class ResourceRecord implements Serializable {
         return inetResult;
     }
 
+    /** Returns the typed view over the record data in the response this record was obtained
+     * from, or null if the record was not created from a view.
+     */
+    public RecordData getDataResult() {
+        return dataResult;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -89,14 +130,32 @@ public class ResourceRecord implements Serializable {
         ResourceRecord record = (ResourceRecord) o;
 
         if (!node.equals(record.node)) return false;
-        if (!textResult.equals(record.textResult)) return false;
+        // Records with record data are compared by their bytes, so that records obtained from
+        // servers never need their textual result to be decoded
+        RecordData data = comparableData(), otherData = record.comparableData();
+        if (data != null || otherData != null) return data != null && data.equals(otherData);
+        if (!getTextResult().equals(record.getTextResult())) return false;
         return inetResult != null ? inetResult.equals(record.inetResult) : record.inetResult == null;
     }
 
     @Override
     public int hashCode() {
         int result = node.hashCode();
-        result = 31 * result + textResult.hashCode();
+        RecordData data = comparableData();
+        result = 31 * result + (data != null ? data.hashCode() : getTextResult().hashCode());
         return result;
     }
+
+    /** Returns the record data this record is compared by: its view, if it was created from one,
+     * or its textual result encoded as record data otherwise. Returns null for address records,
+     * and for textual results that are not valid record data, which are compared by their text.
+     */
+    private RecordData comparableData() {
+        if (dataResult != null) return dataResult;
+        if (!encoded) {
+            encodedResult = RecordData.fromText(getType(), textResult);
+            encoded = true;
+        }
+        return encodedResult;
+    }
 }
@@ -0,0 +1,204 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Enriches a file of IP addresses (e.g., an access log) with host names obtained from reverse
+ * (PTR) lookups. Each line whose first field is an IPv4 or IPv6 address is written to the output
+ * followed by a tab and the host names found for the address (or '-' if none), in the same order
+ * as the input; other lines are copied unchanged. Lines are read and written as a stream, and up
+ * to a fixed number of lines are resolved concurrently.
+ *
+ * Addresses are resolved through the normal lookup path, so delegations of reverse zones are
+ * cached and reused. To avoid sending many addresses of the same network to the root at once
+ * when the cache is cold, only the first address of each /24 (IPv4) or /48 (IPv6) network is
+ * resolved immediately; the others wait until it completes, and then start from the delegation
+ * it cached. Repeated addresses share the same lookup.
+ */
+public class ReverseLookup {
+
+    private static final int RECENT_ADDRESSES = 10000;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    // Result of lines that do not start with an address, which are copied unchanged
+    private static final CompletableFuture<String> NOT_AN_ADDRESS = CompletableFuture.completedFuture(null);
+
+    private int parallelism;
+    private ExecutorService executor;
+
+    // Lookups of recently seen addresses and networks, so that repeated ones share a lookup
+    private Map<String, CompletableFuture<String>> recentAddresses = lruMap(RECENT_ADDRESSES);
+    private Map<String, CompletableFuture<String>> recentNetworks = lruMap(RECENT_ADDRESSES);
+
+    private int addresses = 0;
+    private int resolved = 0;
+
+    /** Creates a new reverse lookup session.
+     *
+     * @param parallelism Maximum number of lines resolved concurrently.
+     */
+    public ReverseLookup(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    /** Resolves the addresses in a file, writing each line and its host names as soon as it and
+     * all lines before it are resolved.
+     *
+     * @param inputFile Name of the file with one address (followed by anything) per line.
+     * @param out       Stream where the enriched lines are written.
+     * @param report    Stream where the summary is printed.
+     * @throws IOException If the input file could not be read.
+     */
+    public void run(String inputFile, PrintStream out, PrintStream report) throws IOException {
+
+        executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "dns-reverse");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        Deque<String> lines = new ArrayDeque<>();
+        Deque<CompletableFuture<String>> results = new ArrayDeque<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                results.add(resolve(line));
+                while (results.size() >= parallelism)
+                    writeNext(lines, results, out);
+            }
+            while (!results.isEmpty())
+                writeNext(lines, results, out);
+        } finally {
+            out.flush();
+            executor.shutdownNow();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        report.printf("Resolved %d of %d addresses in %.3f s (%.1f per second)\n", resolved, addresses,
+                elapsed, addresses / elapsed);
+    }
+
+    private void writeNext(Deque<String> lines, Deque<CompletableFuture<String>> results, PrintStream out) {
+        String line = lines.poll();
+        CompletableFuture<String> result = results.poll();
+        if (result == NOT_AN_ADDRESS) {
+            out.println(line);
+            return;
+        }
+        String hostNames;
+        try {
+            hostNames = result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hostNames = null;
+        } catch (ExecutionException e) {
+            hostNames = null;
+        }
+        if (hostNames != null) resolved++;
+        out.print(line);
+        out.print('\t');
+        out.println(hostNames == null ? "-" : hostNames);
+    }
+
+    /** Starts resolving the address at the start of a line.
+     *
+     * @return The eventual host names (separated by commas, or null if none were found), or
+     * NOT_AN_ADDRESS if the line does not start with an address.
+     */
+    private CompletableFuture<String> resolve(String line) {
+        int end = 0;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+            end++;
+        byte[] address = parseAddress(line.substring(0, end));
+        if (address == null) return NOT_AN_ADDRESS;
+        addresses++;
+
+        String name = reverseName(address);
+        CompletableFuture<String> result = recentAddresses.get(name);
+        if (result != null) return result;
+
+        // Addresses of a network wait for the first lookup in that network, which caches its
+        // delegation; a failed lookup does not prevent the others from trying
+        String network = address.length == 4 ? name.substring(name.indexOf('.') + 1) : name.substring(2 * (32 - 12));
+        CompletableFuture<String> first = recentNetworks.get(network);
+        if (first == null) {
+            result = CompletableFuture.supplyAsync(() -> lookup(name), executor);
+            recentNetworks.put(network, result);
+        } else {
+            result = first.handleAsync((hostNames, error) -> lookup(name), executor);
+        }
+        recentAddresses.put(name, result);
+        return result;
+    }
+
+    private static String lookup(String reverseName) {
+        StringBuilder hostNames = new StringBuilder();
+        for (ResourceRecord record : DNSLookupService.lookup(new DNSNode(reverseName, RecordType.PTR))) {
+            if (record.getType() != RecordType.PTR) continue;
+            if (hostNames.length() > 0) hostNames.append(',');
+            hostNames.append(record.getTextResult());
+        }
+        return hostNames.length() == 0 ? null : hostNames.toString();
+    }
+
+    /** Builds the reverse lookup name of an address (in the in-addr.arpa domain for IPv4 and in
+     * the ip6.arpa domain for IPv6), filling a character array of the exact size so that only the
+     * resulting string is allocated.
+     *
+     * @param address The IPv4 (4 bytes) or IPv6 (16 bytes) address.
+     * @return The reverse lookup name, e.g., 1.0.0.10.in-addr.arpa for 10.0.0.1.
+     */
+    static String reverseName(byte[] address) {
+        if (address.length == 4) {
+            char[] name = new char[4 * 4 + "in-addr.arpa".length()];
+            int length = 0;
+            for (int i = 3; i >= 0; i--) {
+                int octet = address[i] & 0xFF;
+                if (octet >= 100) name[length++] = (char) ('0' + octet / 100);
+                if (octet >= 10) name[length++] = (char) ('0' + octet / 10 % 10);
+                name[length++] = (char) ('0' + octet % 10);
+                name[length++] = '.';
+            }
+            "in-addr.arpa".getChars(0, "in-addr.arpa".length(), name, length);
+            return new String(name, 0, length + "in-addr.arpa".length());
+        }
+        char[] name = new char[32 * 2 + "ip6.arpa".length()];
+        int length = 0;
+        for (int i = 15; i >= 0; i--) {
+            name[length++] = HEX_DIGITS[address[i] & 0x0F];
+            name[length++] = '.';
+            name[length++] = HEX_DIGITS[(address[i] >> 4) & 0x0F];
+            name[length++] = '.';
+        }
+        "ip6.arpa".getChars(0, "ip6.arpa".length(), name, length);
+        return new String(name);
+    }
+
+    /** Parses an IPv4 or IPv6 address literal, without ever querying a name server. IPv4-mapped
+     * IPv6 addresses are resolved as the IPv4 address they map.
+     *
+     * @return The address bytes, or null if the field is not an address literal.
+     */
+    private static byte[] parseAddress(String field) {
+        byte[] address = ZoneFileLoader.parseAddressLiteral(field);
+        if (address == null || address.length == 4) return address;
+        try {
+            return InetAddress.getByAddress(address).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static <V> Map<String, V> lruMap(int capacity) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+}
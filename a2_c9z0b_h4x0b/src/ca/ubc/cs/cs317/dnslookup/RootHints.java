@@ -0,0 +1,80 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/** Root hints: the names and addresses of the root name servers, used to start the resolution of
+ * names before the actual set of root servers is known. Hints are stored in the cache as pinned
+ * records (NS records for the root zone and the addresses of each server), either from the
+ * built-in list of the 13 root servers or from a hints file in master file format (such as
+ * named.root, published by IANA). The priming query (NS for the root zone) then refreshes the set
+ * of root servers from the roots themselves.
+ */
+public class RootHints {
+
+    private static final String[][] ROOT_SERVERS = {
+            {"a.root-servers.net", "198.41.0.4", "2001:503:ba3e::2:30"},
+            {"b.root-servers.net", "170.247.170.2", "2801:1b8:10::b"},
+            {"c.root-servers.net", "192.33.4.12", "2001:500:2::c"},
+            {"d.root-servers.net", "199.7.91.13", "2001:500:2d::d"},
+            {"e.root-servers.net", "192.203.230.10", "2001:500:a8::e"},
+            {"f.root-servers.net", "192.5.5.241", "2001:500:2f::f"},
+            {"g.root-servers.net", "192.112.36.4", "2001:500:12::d0d"},
+            {"h.root-servers.net", "198.97.190.53", "2001:500:1::53"},
+            {"i.root-servers.net", "192.36.148.17", "2001:7fe::53"},
+            {"j.root-servers.net", "192.58.128.30", "2001:503:c27::2:30"},
+            {"k.root-servers.net", "193.0.14.129", "2001:7fd::1"},
+            {"l.root-servers.net", "199.7.83.42", "2001:500:9f::42"},
+            {"m.root-servers.net", "202.12.27.33", "2001:dc3::35"},
+    };
+
+    /** Adds the built-in root hints to the cache.
+     *
+     * @param cache Cache where the hints are added.
+     */
+    public static void addDefaultHints(DNSCache cache) {
+        Date pinned = new Date(Long.MAX_VALUE);
+        for (String[] server : ROOT_SERVERS) {
+            cache.addResult(new ResourceRecord("", RecordType.NS, pinned, server[0]));
+            cache.addResult(new ResourceRecord(server[0], RecordType.A, pinned, server[1]));
+            cache.addResult(new ResourceRecord(server[0], RecordType.AAAA, pinned, server[2]));
+        }
+    }
+
+    /** Adds the root hints in a hints file to the cache. The records in the file are pinned.
+     *
+     * @param cache    Cache where the hints are added.
+     * @param fileName Name of the hints file.
+     * @throws IOException If the file could not be read.
+     */
+    public static void addHints(DNSCache cache, String fileName) throws IOException {
+        new ZoneFileLoader(cache, ZoneFileLoader.PINNED).load(fileName);
+    }
+
+    /** Returns the addresses of the root name servers found in the cache, whether obtained from
+     * hints or from a priming query. IPv4 addresses are listed before IPv6 addresses.
+     *
+     * @param cache Cache where the root name servers are found.
+     * @return A potentially empty list of addresses.
+     */
+    public static List<InetAddress> getRootServers(DNSCache cache) {
+        List<InetAddress> ipv4 = new ArrayList<>(), ipv6 = new ArrayList<>();
+        for (ResourceRecord ns : cache.getCachedResults(new DNSNode("", RecordType.NS)))
+            for (RecordType type : new RecordType[]{RecordType.A, RecordType.AAAA})
+                for (ResourceRecord address : cache.getCachedResults(new DNSNode(ns.getTextResult(), type)))
+                    try {
+                        InetAddress server = InetAddress.getByName(address.getTextResult());
+                        List<InetAddress> family = server instanceof Inet4Address ? ipv4 : ipv6;
+                        if (!family.contains(server)) family.add(server);
+                    } catch (UnknownHostException e) {
+                        // Not an address literal, try the next one
+                    }
+        ipv4.addAll(ipv6);
+        return ipv4;
+    }
+}
@@ -0,0 +1,167 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.PrintStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.*;
+
+/** An infrastructure cache, recording how each name server has behaved in previous queries. A
+ * smoothed round-trip time is kept for servers that responded. Servers that timed out, were
+ * unreachable or answered with SERVFAIL or REFUSED are held down, as are servers that gave a lame
+ * response for a zone they were delegated (a non-authoritative response without an answer or a
+ * closer referral), for that zone only. Held-down servers are skipped when choosing a server to
+ * query. Each consecutive failure doubles the hold-down period, up to a maximum. Once the period
+ * ends, a single query is allowed as a probe: if it succeeds the server is usable again,
+ * otherwise it is held down for twice as long.
+ */
+public class ServerHealth {
+
+    public enum Failure {TIMEOUT, UNREACHABLE, SERVFAIL, REFUSED, LAME}
+
+    private static final long INITIAL_HOLD_DOWN = 5000;
+    private static final long MAX_HOLD_DOWN = 15 * 60 * 1000;
+    private static final long INITIAL_RTT = 200;
+    // IPv6 servers that were never queried are tried after IPv4 ones, as IPv6 connectivity is
+    // less often available
+    private static final long INITIAL_RTT_IPV6 = 250;
+    private static final long MAX_RTT = 5000;
+    // A probe that was handed out but never reported (e.g., another server answered first) is
+    // given up after this time, so that another query may probe the server
+    private static final long PROBE_TIMEOUT = 10000;
+    // Servers (and servers for a zone) remembered; the least recently used ones are forgotten
+    private static final int MAX_ENTRIES = 10000;
+
+    private static ServerHealth instance = new ServerHealth();
+
+    private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ServerHealth.Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /** The state of a server (or of a server for a specific zone). */
+    private static class Entry {
+        private long smoothedRTT = -1;
+        private int failures = 0;
+        private Failure lastFailure;
+        private long holdDownUntil = 0;
+        private long probeStarted = 0;
+    }
+
+    /** Singleton retrieval method. The same infrastructure cache is shared by all lookups.
+     *
+     * @return Instance of the infrastructure cache.
+     */
+    public static ServerHealth getInstance() {
+        return instance;
+    }
+
+    /** Returns the servers that may be queried for a zone, best first: servers with the lowest
+     * smoothed round-trip time come first, and servers that were never queried are assumed to
+     * have an average one (slightly higher for IPv6 servers). Servers with the same expected
+     * round-trip time are listed in random order, so that queries are spread across them (e.g.,
+     * across root servers) until their round-trip times are known. Held-down servers are left out,
+     * except for one probe per server once its hold-down period ended. If every server is held
+     * down, the one whose hold-down period ends first is returned, as failing the lookup outright
+     * would be worse.
+     *
+     * @param servers Candidate servers.
+     * @param zone    Zone the servers were delegated.
+     * @return A list of servers to be queried, in order, empty only if there are no candidates.
+     */
+    public synchronized List<InetAddress> select(List<InetAddress> servers, String zone) {
+        long now = System.currentTimeMillis();
+        List<InetAddress> usable = new ArrayList<>(servers.size());
+        for (InetAddress server : servers)
+            if (!usable.contains(server) && isUsable(entries.get(key(server, null)), now) &&
+                    isUsable(entries.get(key(server, zone)), now))
+                usable.add(server);
+        if (usable.isEmpty() && !servers.isEmpty()) {
+            InetAddress first = null;
+            long firstEnd = Long.MAX_VALUE;
+            for (InetAddress server : servers) {
+                long end = Math.max(holdDownEnd(entries.get(key(server, null))),
+                        holdDownEnd(entries.get(key(server, zone))));
+                if (end < firstEnd) {
+                    first = server;
+                    firstEnd = end;
+                }
+            }
+            return Collections.singletonList(first);
+        }
+        Collections.shuffle(usable);
+        usable.sort(Comparator.comparingLong(this::expectedRTT));
+        return usable;
+    }
+
+    private static boolean isUsable(Entry entry, long now) {
+        if (entry == null || entry.failures == 0) return true;
+        if (now < entry.holdDownUntil || now - entry.probeStarted < PROBE_TIMEOUT) return false;
+        entry.probeStarted = now;
+        return true;
+    }
+
+    private static long holdDownEnd(Entry entry) {
+        return entry == null || entry.failures == 0 ? 0 : entry.holdDownUntil;
+    }
+
+    /** Returns the expected round-trip time of a server, in milliseconds. */
+    public synchronized long expectedRTT(InetAddress server) {
+        Entry entry = entries.get(key(server, null));
+        if (entry == null || entry.smoothedRTT < 0)
+            return server instanceof Inet6Address ? INITIAL_RTT_IPV6 : INITIAL_RTT;
+        return entry.smoothedRTT;
+    }
+
+    /** Records that a server responded to a query, ending any hold-down for the server and zone.
+     *
+     * @param server Server that responded.
+     * @param zone   Zone the server was queried for.
+     * @param rtt    Time, in milliseconds, between sending the query and receiving the response.
+     */
+    public synchronized void recordSuccess(InetAddress server, String zone, long rtt) {
+        Entry entry = entries.computeIfAbsent(key(server, null), k -> new Entry());
+        entry.smoothedRTT = entry.smoothedRTT < 0 ? rtt : (7 * entry.smoothedRTT + 3 * rtt) / 10;
+        entry.failures = 0;
+        entry.probeStarted = 0;
+        entries.remove(key(server, zone));
+    }
+
+    /** Records that a query to a server failed, and holds the server down. Lame responses only
+     * hold the server down for the zone it was queried for.
+     *
+     * @param server  Server that failed.
+     * @param zone    Zone the server was queried for.
+     * @param failure Type of failure.
+     */
+    public synchronized void recordFailure(InetAddress server, String zone, Failure failure) {
+        Entry entry = entries.computeIfAbsent(key(server, failure == Failure.LAME ? zone : null), k -> new Entry());
+        entry.failures++;
+        entry.lastFailure = failure;
+        entry.probeStarted = 0;
+        entry.holdDownUntil = System.currentTimeMillis() +
+                Math.min(MAX_HOLD_DOWN, INITIAL_HOLD_DOWN << Math.min(entry.failures - 1, 20));
+        // A server that stopped responding remains less attractive even after its hold-down ends
+        if (failure == Failure.TIMEOUT || failure == Failure.UNREACHABLE)
+            entry.smoothedRTT = Math.min(MAX_RTT, Math.max(entry.smoothedRTT, INITIAL_RTT) * 2);
+    }
+
+    /** Prints the state of every server known to the infrastructure cache. */
+    public synchronized void print(PrintStream out) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> mapEntry : new TreeMap<>(entries).entrySet()) {
+            Entry entry = mapEntry.getValue();
+            out.printf("%-40s rtt %-6s", mapEntry.getKey(), entry.smoothedRTT < 0 ? "-" : entry.smoothedRTT + "ms");
+            if (entry.failures > 0)
+                out.printf(" %d failures (last %s), %s", entry.failures, entry.lastFailure,
+                        entry.holdDownUntil > now ? "held down for " + (entry.holdDownUntil - now) / 1000 + "s" :
+                                "awaiting probe");
+            out.println();
+        }
+    }
+
+    private static String key(InetAddress server, String zone) {
+        return zone == null ? server.getHostAddress() : server.getHostAddress() + " (" + (zone.isEmpty() ? "." : zone) + ")";
+    }
+}
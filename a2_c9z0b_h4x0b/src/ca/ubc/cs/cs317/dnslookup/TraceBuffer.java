@@ -0,0 +1,297 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.*;
+
+/** This class records resolver trace events (queries sent, responses received, referrals, cached
+ * records, timeouts and unreachable servers) as structured entries in a fixed-size ring buffer owned by each thread.
+ * Recording an event only stores references and primitive values in the calling thread's own
+ * buffer, without locks or formatting; the textual trace is rendered from the buffers after the
+ * fact, either after a lookup, on demand, or when an error occurs. Once a buffer is full, the
+ * oldest events are overwritten.
+ */
+public class TraceBuffer {
+
+    public enum EventType {QUERY_SENT, RESPONSE_RECEIVED, REFERRAL, RECORD_CACHED, TIMEOUT, UNREACHABLE}
+
+    public static final int ANSWER_SECTION = 0;
+    public static final int AUTHORITY_SECTION = 1;
+    public static final int ADDITIONAL_SECTION = 2;
+
+    private static final int CAPACITY = 4096;
+    private static final int NO_RESPONSE = Integer.MAX_VALUE;
+    private static final String[] SECTION_NAMES = {"Answers", "Nameservers", "Additional Information"};
+
+    private static volatile boolean enabled = false;
+    private static volatile int samplingRate = 1;
+
+    // The buffers of all threads, held weakly so that the buffer of a thread that ended is
+    // discarded along with it
+    private static final Map<Thread, TraceBuffer> buffers = new WeakHashMap<>();
+    private static ThreadLocal<TraceBuffer> threadBuffer = ThreadLocal.withInitial(() -> {
+        TraceBuffer buffer = new TraceBuffer(Thread.currentThread().getName());
+        synchronized (buffers) {
+            buffers.put(Thread.currentThread(), buffer);
+        }
+        return buffer;
+    });
+
+    private String threadName;
+    private long[] times = new long[CAPACITY];
+    private EventType[] types = new EventType[CAPACITY];
+    private Object[] subjects = new Object[CAPACITY];
+    private InetAddress[] servers = new InetAddress[CAPACITY];
+    private long[] values = new long[CAPACITY];
+    private volatile long written = 0;
+
+    private long queries = 0;
+    private boolean sampled = false;
+
+    private TraceBuffer(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /** Turns the recording of trace events on or off.
+     *
+     * @param enabled true if events should be recorded, false otherwise.
+     */
+    public static void setEnabled(boolean enabled) {
+        TraceBuffer.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Sets the fraction of queries whose events are recorded. Sampling is decided when a query is
+     * sent, and applies to all events that follow it in the same thread until the next query.
+     *
+     * @param rate One out of every rate queries is traced; 1 traces every query.
+     */
+    public static void setSamplingRate(int rate) {
+        samplingRate = Math.max(rate, 1);
+    }
+
+    public static int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /** Records that a query was sent to a server.
+     *
+     * @param node    Host name and record type used for the query.
+     * @param server  Address of the server the query was sent to.
+     * @param queryID Identifier of the query.
+     */
+    public static void querySent(DNSNode node, InetAddress server, int queryID) {
+        if (!enabled) return;
+        TraceBuffer buffer = threadBuffer.get();
+        buffer.sampled = buffer.queries++ % samplingRate == 0;
+        buffer.add(EventType.QUERY_SENT, node, server, queryID);
+    }
+
+    /** Records that a response was received.
+     *
+     * @param queryID       Identifier found in the response.
+     * @param authoritative true if the response is authoritative.
+     * @param answers       Number of records in the answer section.
+     * @param nameServers   Number of records in the authority section.
+     * @param additional    Number of records in the additional section.
+     */
+    public static void responseReceived(int queryID, boolean authoritative, int answers, int nameServers,
+                                        int additional) {
+        if (!enabled) return;
+        threadBuffer.get().add(EventType.RESPONSE_RECEIVED, authoritative, null,
+                (long) (queryID & 0xFFFF) << 48 | (long) (answers & 0xFFFF) << 32 |
+                        (long) (nameServers & 0xFFFF) << 16 | (additional & 0xFFFF));
+    }
+
+    /** Records that a response was a referral to another server.
+     *
+     * @param node   Host name and record type used for the query.
+     * @param server Address of the server to be queried next.
+     */
+    public static void referral(DNSNode node, InetAddress server) {
+        if (!enabled) return;
+        threadBuffer.get().add(EventType.REFERRAL, node, server, 0);
+    }
+
+    /** Records that a record obtained from a response was added to the cache.
+     *
+     * @param record  The cached record.
+     * @param rtype   Numeric record type, as found in the response.
+     * @param section Section of the response where the record was found (e.g., ANSWER_SECTION).
+     */
+    public static void recordCached(ResourceRecord record, int rtype, int section) {
+        if (!enabled) return;
+        // The TTL is kept as it was when the record was cached, not when the trace is rendered
+        long ttl = Math.max(0, Math.min(record.getTTL(), 0xFFFFFFFFL));
+        threadBuffer.get().add(EventType.RECORD_CACHED, record, null,
+                (long) section << 48 | (long) (rtype & 0xFFFF) << 32 | ttl);
+    }
+
+    /** Records that no response was received from a server in time.
+     *
+     * @param node   Host name and record type used for the query.
+     * @param server Address of the server that did not respond.
+     */
+    public static void timeout(DNSNode node, InetAddress server) {
+        if (!enabled) return;
+        threadBuffer.get().add(EventType.TIMEOUT, node, server, 0);
+    }
+
+    /** Records that a query could not be sent to a server, or that the server reported it could
+     * not be delivered (e.g., port unreachable).
+     *
+     * @param node   Host name and record type used for the query.
+     * @param server Address of the server that could not be reached.
+     */
+    public static void unreachable(DNSNode node, InetAddress server) {
+        if (!enabled) return;
+        threadBuffer.get().add(EventType.UNREACHABLE, node, server, 0);
+    }
+
+    private void add(EventType type, Object subject, InetAddress server, long value) {
+        if (!sampled) return;
+        int index = (int) (written % CAPACITY);
+        times[index] = System.nanoTime();
+        types[index] = type;
+        subjects[index] = subject;
+        servers[index] = server;
+        values[index] = value;
+        written++;
+    }
+
+    /** Returns a timestamp comparable with the time of the recorded events. Events recorded after
+     * this call can then be rendered with render(out, since).
+     *
+     * @return The current timestamp.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /** Renders the events recorded by all threads since a timestamp. Events are shown in
+     * chronological order for each thread, starting with the current thread.
+     *
+     * @param out   Stream where events are printed.
+     * @param since Timestamp (obtained from now()) of the oldest event to render.
+     */
+    public static void render(PrintStream out, long since) {
+        TraceBuffer current = threadBuffer.get();
+        current.render(out, since, false);
+        for (TraceBuffer buffer : allBuffers())
+            if (buffer != current)
+                buffer.render(out, since, true);
+    }
+
+    /** Renders all events still held by each thread's buffer.
+     *
+     * @param out Stream where events are printed.
+     */
+    public static void dump(PrintStream out) {
+        for (TraceBuffer buffer : allBuffers())
+            buffer.render(out, Long.MIN_VALUE, true);
+    }
+
+    private static List<TraceBuffer> allBuffers() {
+        synchronized (buffers) {
+            return new ArrayList<>(buffers.values());
+        }
+    }
+
+    /** Renders the events of the current thread, typically after an error occurred.
+     *
+     * @param out Stream where events are printed.
+     */
+    public static void dumpCurrentThread(PrintStream out) {
+        if (enabled)
+            threadBuffer.get().render(out, Long.MIN_VALUE, true);
+    }
+
+    private void render(PrintStream out, long since, boolean showThread) {
+        // The owner thread may keep writing while another thread renders its events, overwriting
+        // the oldest slots; those slots are skipped, so this is a best-effort view
+        boolean owner = threadBuffer.get() == this;
+        long end = written;
+        long start = Math.max(0, end - CAPACITY);
+        boolean headerShown = false;
+        long counts = 0;
+        int section = NO_RESPONSE;
+
+        for (long i = start; i < end; i++) {
+            int index = (int) (i % CAPACITY);
+            long time = times[index];
+            EventType type = types[index];
+            Object subject = subjects[index];
+            InetAddress server = servers[index];
+            long value = values[index];
+            if (!owner && (written - CAPACITY >= i || !isConsistent(type, subject, server))) continue;
+            if (since != Long.MIN_VALUE && time - since < 0) continue;
+            if (showThread && !headerShown) {
+                out.println("--- Trace for thread " + threadName);
+                headerShown = true;
+            }
+            switch (type) {
+                case QUERY_SENT:
+                    renderSections(out, counts, section, ADDITIONAL_SECTION);
+                    section = NO_RESPONSE;
+                    DNSNode node = (DNSNode) subject;
+                    out.printf("\n\nQuery ID     %d %s  %s --> %s\n", value, node.getHostName(),
+                            node.getType(), server.getHostAddress());
+                    break;
+                case RESPONSE_RECEIVED:
+                    renderSections(out, counts, section, ADDITIONAL_SECTION);
+                    counts = value;
+                    section = -1;
+                    out.println("Response ID: " + (value >>> 48) + " Authoritative = " + subject);
+                    break;
+                case RECORD_CACHED:
+                    ResourceRecord record = (ResourceRecord) subject;
+                    section = renderSections(out, counts, section, (int) (value >>> 48));
+                    out.format("       %-30s %-10d %-4s %s\n", record.getHostName(),
+                            value & 0xFFFFFFFFL,
+                            record.getType() == RecordType.OTHER ? (int) (value >>> 32 & 0xFFFF) : record.getType(),
+                            record.getTextResult());
+                    break;
+                case REFERRAL:
+                    renderSections(out, counts, section, ADDITIONAL_SECTION);
+                    section = NO_RESPONSE;
+                    out.println("Referral for " + subject + " to " + server.getHostAddress());
+                    break;
+                case TIMEOUT:
+                    out.println("Timeout waiting for " + subject + " from " + server.getHostAddress());
+                    break;
+                case UNREACHABLE:
+                    out.println("Could not reach " + server.getHostAddress() + " for " + subject);
+                    break;
+            }
+        }
+        renderSections(out, counts, section, ADDITIONAL_SECTION);
+    }
+
+    /** Returns true if the fields read from a slot may belong to the same event, i.e., if the slot
+     * was not read while its owner thread was overwriting it with an event of another type.
+     */
+    private static boolean isConsistent(EventType type, Object subject, InetAddress server) {
+        if (type == null) return false;
+        switch (type) {
+            case RESPONSE_RECEIVED:
+                return subject instanceof Boolean;
+            case RECORD_CACHED:
+                return subject instanceof ResourceRecord;
+            default:
+                return subject instanceof DNSNode && server != null;
+        }
+    }
+
+    /** Prints the headers of all response sections after the current one, up to a target section,
+     * so that empty sections still show their (zero) record count.
+     */
+    private static int renderSections(PrintStream out, long counts, int current, int target) {
+        if (current == NO_RESPONSE || target <= current) return current;
+        for (int section = current + 1; section <= target; section++)
+            out.println("  " + SECTION_NAMES[section] + " (" + ((counts >>> (32 - 16 * section)) & 0xFFFF) + ")");
+        return target;
+    }
+}
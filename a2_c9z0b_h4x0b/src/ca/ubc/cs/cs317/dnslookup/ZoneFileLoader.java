@@ -0,0 +1,440 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/** Preloads the DNS cache from files, so that names known ahead of time never require a lookup.
+ * Three file formats are supported, and detected automatically:
+ * <ul>
+ *     <li>RFC 1035 master (zone) files, including the $ORIGIN and $TTL directives, relative and
+ *     '@' owner names, omitted owners, TTLs and classes, and records spanning several lines
+ *     within parentheses. Records of unsupported types are skipped.</li>
+ *     <li>Hosts files (as in /etc/hosts), where each line contains an IPv4 or IPv6 address
+ *     followed by one or more host names.</li>
+ *     <li>Binary cache snapshots written by the export command.</li>
+ * </ul>
+ * Files are parsed as a stream, one line at a time, so files of any size may be loaded.
+ */
+public class ZoneFileLoader {
+
+    /** TTL value used to pin records in the cache, so that they never expire. */
+    public static final long PINNED = -1;
+    /** TTL value used to keep the TTL specified in the file (hosts file records are pinned). */
+    public static final long FILE_TTL = 0;
+
+    private static final long DEFAULT_TTL = 3600;
+    // Number of seconds in each TTL unit: seconds, minutes, hours, days and weeks
+    private static final long[] TTL_UNITS = {1, 60, 3600, 86400, 604800};
+
+    private DNSCache cache;
+    private long ttl;
+
+    private int loaded = 0;
+    private int skipped = 0;
+
+    /** Creates a loader that adds records to a cache.
+     *
+     * @param cache Cache where records are added.
+     * @param ttl   TTL, in seconds, given to loaded records; PINNED to pin all records, or
+     *              FILE_TTL to use the TTL specified in the file.
+     */
+    public ZoneFileLoader(DNSCache cache, long ttl) {
+        this.cache = cache;
+        this.ttl = ttl;
+    }
+
+    public int getLoadedCount() {
+        return loaded;
+    }
+
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /** Loads all records in a file into the cache, detecting the file format from its contents.
+     *
+     * @param fileName Name of the file to be loaded.
+     * @throws IOException If the file could not be read.
+     */
+    public void load(String fileName) throws IOException {
+
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(fileName), 1 << 16)) {
+            in.mark(4);
+            DataInputStream din = new DataInputStream(in);
+            if (in.available() >= 4 && din.readInt() == CacheExporter.BINARY_MAGIC) {
+                loadSnapshot(din);
+                return;
+            }
+            in.reset();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            reader.mark(1 << 16);
+            boolean hostsFile = isHostsFile(reader);
+            reader.reset();
+            if (hostsFile)
+                loadHostsFile(reader);
+            else
+                loadMasterFile(reader);
+        }
+    }
+
+    /** A file is considered a hosts file if its first entry starts with an IP address. */
+    private static boolean isHostsFile(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            List<String> tokens = tokenize(line, '#');
+            if (!tokens.isEmpty())
+                return parseAddress(tokens.get(0)) != null;
+        }
+        return false;
+    }
+
+    private void loadHostsFile(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            List<String> tokens = tokenize(line, '#');
+            if (tokens.isEmpty()) continue;
+
+            InetAddress address = parseAddress(tokens.get(0));
+            if (address == null || tokens.size() < 2) {
+                skipped++;
+                continue;
+            }
+            RecordType type = address.getAddress().length == 4 ? RecordType.A : RecordType.AAAA;
+            for (String hostName : tokens.subList(1, tokens.size()))
+                add(stripDot(hostName), type, PINNED, formatAddress(address));
+        }
+    }
+
+    private void loadMasterFile(BufferedReader reader) throws IOException {
+        String origin = "";
+        long defaultTTL = DEFAULT_TTL;
+        String owner = null;
+        List<String> tokens;
+
+        while ((tokens = readEntry(reader)) != null) {
+            if (tokens.isEmpty()) continue;
+            String first = tokens.get(0);
+
+            if (first.equalsIgnoreCase("$ORIGIN") && tokens.size() > 1) {
+                origin = qualify(tokens.get(1), origin);
+                continue;
+            } else if (first.equalsIgnoreCase("$TTL") && tokens.size() > 1) {
+                defaultTTL = parseTTL(tokens.get(1));
+                continue;
+            } else if (first.startsWith("$")) {
+                // $INCLUDE and other directives are not supported
+                skipped++;
+                continue;
+            }
+
+            // An entry starting with a blank uses the owner of the previous entry
+            if (!first.isEmpty())
+                owner = qualify(first, origin);
+            if (owner == null) {
+                skipped++;
+                continue;
+            }
+
+            long recordTTL = defaultTTL;
+            RecordType type = null;
+            int index = 1;
+            for (; index < tokens.size() && type == null; index++) {
+                String token = tokens.get(index);
+                if (Character.isDigit(token.charAt(0)))
+                    recordTTL = parseTTL(token);
+                else if (!token.equalsIgnoreCase("IN") && !token.equalsIgnoreCase("CH") &&
+                        !token.equalsIgnoreCase("HS") && !token.equalsIgnoreCase("CS"))
+                    try {
+                        type = RecordType.valueOf(token.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+            }
+            String result = type == null ? null : formatData(type, tokens.subList(index, tokens.size()), origin);
+            if (result == null) {
+                skipped++;
+                continue;
+            }
+            add(owner, type, recordTTL, result);
+        }
+    }
+
+    /** Converts the rdata fields of a master file entry into the textual result used by the
+     * resolver for the same record, so that preloaded records match records obtained from servers.
+     */
+    private static String formatData(RecordType type, List<String> fields, String origin) {
+        try {
+            switch (type) {
+                case A:
+                case AAAA:
+                    InetAddress address = parseAddress(fields.get(0));
+                    return address == null ? null : formatAddress(address);
+                case NS:
+                case CNAME:
+                case DNAME:
+                case PTR:
+                    return qualify(fields.get(0), origin);
+                case MX:
+                    return Integer.parseInt(fields.get(0)) + " " + qualify(fields.get(1), origin);
+                case SRV:
+                    return Integer.parseInt(fields.get(0)) + " " + Integer.parseInt(fields.get(1)) + " " +
+                            Integer.parseInt(fields.get(2)) + " " + qualify(fields.get(3), origin);
+                case SOA:
+                    StringBuilder soa = new StringBuilder(qualify(fields.get(0), origin))
+                            .append(' ').append(qualify(fields.get(1), origin));
+                    for (int i = 2; i < 7; i++)
+                        soa.append(' ').append(parseTTL(fields.get(i)));
+                    return soa.toString();
+                case TXT:
+                    StringBuilder text = new StringBuilder();
+                    for (String field : fields) {
+                        if (text.length() > 0) text.append(' ');
+                        text.append(field.startsWith("\"") ? field : "\"" + field + "\"");
+                    }
+                    return text.length() == 0 ? null : text.toString();
+                default:
+                    return null;
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void add(String hostName, RecordType type, long fileTTL, String result) {
+        long recordTTL = ttl == FILE_TTL ? fileTTL : ttl;
+        if (recordTTL == PINNED)
+            cache.addResult(new ResourceRecord(hostName, type, new Date(Long.MAX_VALUE), result));
+        else
+            cache.addResult(new ResourceRecord(hostName, type, recordTTL, result));
+        loaded++;
+    }
+
+    private void loadSnapshot(DataInputStream din) throws IOException {
+        if (din.readShort() != CacheExporter.BINARY_VERSION)
+            throw new IOException("Unsupported snapshot version");
+
+        while (din.readByte() != 0) {
+            String hostName = din.readUTF();
+            RecordType type = RecordType.getByCode(din.readShort());
+            long expirationTime = din.readLong();
+            String result = din.readUTF();
+            din.skipBytes(din.readByte());
+
+            if (ttl != FILE_TTL) {
+                add(hostName, type, ttl, result);
+            } else if (expirationTime <= System.currentTimeMillis()) {
+                skipped++;
+            } else {
+                cache.addResult(new ResourceRecord(hostName, type, new Date(expirationTime), result));
+                loaded++;
+            }
+        }
+    }
+
+    /** Reads the next entry of a master file, joining lines within parentheses. Comments are
+     * removed. An entry whose first line starts with a blank has an empty first token.
+     *
+     * @return The tokens of the entry (possibly none), or null at the end of the file.
+     */
+    private static List<String> readEntry(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) return null;
+
+        List<String> tokens = tokenize(line, ';');
+        if (!tokens.isEmpty() && !line.isEmpty() && Character.isWhitespace(line.charAt(0)))
+            tokens.add(0, "");
+
+        int depth = 0;
+        List<String> entry = new ArrayList<>(tokens.size());
+        while (true) {
+            for (String token : tokens) {
+                if (token.equals("(")) depth++;
+                else if (token.equals(")")) depth--;
+                else entry.add(token);
+            }
+            if (depth <= 0) return entry;
+            if ((line = reader.readLine()) == null) return entry;
+            tokens = tokenize(line, ';');
+        }
+    }
+
+    /** Splits a line into blank-separated tokens, up to a comment character. Quoted strings are
+     * kept as a single token, including their quotes, and parentheses are separate tokens.
+     */
+    private static List<String> tokenize(String line, char comment) {
+        List<String> tokens = new ArrayList<>();
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == comment) break;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(c == '(' ? "(" : ")");
+                i++;
+            } else if (c == '"') {
+                int start = i++;
+                while (i < length && line.charAt(i) != '"')
+                    i += line.charAt(i) == '\\' ? 2 : 1;
+                i = Math.min(i + 1, length);
+                tokens.add(line.substring(start, i));
+            } else {
+                int start = i;
+                while (i < length && !Character.isWhitespace(line.charAt(i)) && "()\"".indexOf(line.charAt(i)) < 0 &&
+                        line.charAt(i) != comment)
+                    i++;
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /** Converts a (possibly relative) master file name into a fully-qualified host name without
+     * a trailing dot.
+     */
+    private static String qualify(String name, String origin) {
+        if (name.equals("@")) return origin;
+        if (name.endsWith(".")) return stripDot(name);
+        return origin.isEmpty() ? name : name + "." + origin;
+    }
+
+    private static String stripDot(String name) {
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /** Parses a TTL, either as a number of seconds or with BIND-style units (e.g., 1h30m). */
+    private static long parseTTL(String token) {
+        long total = 0, value = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = Character.toLowerCase(token.charAt(i));
+            if (Character.isDigit(c)) {
+                value = value * 10 + (c - '0');
+                continue;
+            }
+            int unit = "smhdw".indexOf(c);
+            if (unit < 0)
+                throw new NumberFormatException("Invalid TTL: " + token);
+            total += value * TTL_UNITS[unit];
+            value = 0;
+        }
+        return total + value;
+    }
+
+    /** Parses an IPv4 or IPv6 address literal, without ever querying a name server.
+     *
+     * @return The parsed address, or null if the token is not an address literal.
+     */
+    private static InetAddress parseAddress(String token) {
+        byte[] address = parseAddressLiteral(token);
+        try {
+            return address == null ? null : InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /** Parses an address literal strictly: an IPv4 address in dotted-quad form, or an IPv6
+     * address in the forms of RFC 4291 (hexadecimal groups, at most one "::", and optionally a
+     * trailing dotted quad). Unlike InetAddress.getByName, this never falls back to resolving the
+     * token as a host name, and does not accept the shorter IPv4 forms of inet_aton (e.g., 1234).
+     *
+     * @param token Token to be parsed.
+     * @return The address bytes (4 for IPv4, 16 for IPv6), or null if the token is not an address.
+     */
+    static byte[] parseAddressLiteral(String token) {
+        byte[] address = parseIPv4(token);
+        if (address != null || token.indexOf(':') < 0) return address;
+        return parseIPv6(token);
+    }
+
+    private static byte[] parseIPv4(String token) {
+        byte[] address = new byte[4];
+        int octet = -1, count = 0;
+        for (int i = 0; i <= token.length(); i++) {
+            char c = i < token.length() ? token.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) return null;
+            } else if (c == '.' && octet >= 0 && count < 4) {
+                address[count++] = (byte) octet;
+                octet = -1;
+            } else
+                return null;
+        }
+        return count == 4 ? address : null;
+    }
+
+    private static byte[] parseIPv6(String token) {
+        byte[] address = new byte[16];
+        int length = 0;
+        int gap = -1; // position, in bytes, of the groups omitted by "::"
+        int position = 0;
+        if (token.startsWith("::")) {
+            gap = 0;
+            position = 2;
+        } else if (token.startsWith(":"))
+            return null;
+
+        while (position < token.length()) {
+            int end = token.indexOf(':', position);
+            if (end < 0) end = token.length();
+            String group = token.substring(position, end);
+            if (end == token.length() && group.indexOf('.') >= 0) {
+                byte[] ipv4 = parseIPv4(group);
+                if (ipv4 == null || length > 12) return null;
+                System.arraycopy(ipv4, 0, address, length, 4);
+                length += 4;
+                break;
+            }
+            if (group.isEmpty() || group.length() > 4 || length == 16) return null;
+            int value = 0;
+            for (int i = 0; i < group.length(); i++) {
+                int digit = "0123456789abcdef".indexOf(Character.toLowerCase(group.charAt(i)));
+                if (digit < 0) return null;
+                value = value << 4 | digit;
+            }
+            address[length++] = (byte) (value >> 8);
+            address[length++] = (byte) value;
+            if (end == token.length()) break;
+
+            position = end + 1;
+            if (position == token.length()) return null; // trailing single ':'
+            if (token.charAt(position) == ':') {
+                if (gap >= 0) return null;
+                gap = length;
+                position++;
+            }
+        }
+
+        if (gap < 0) return length == 16 ? address : null;
+        if (length == 16) return null; // "::" stands for at least one group
+        int tail = length - gap;
+        System.arraycopy(address, gap, address, 16 - tail, tail);
+        Arrays.fill(address, gap, 16 - tail, (byte) 0);
+        return address;
+    }
+
+    /** Formats an address the same way addresses are formatted in results obtained from servers. */
+    private static String formatAddress(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes.length == 4) {
+                if (i > 0) text.append('.');
+                text.append(bytes[i] & 0xFF);
+            } else {
+                if (i > 0 && i % 2 == 0) text.append(':');
+                text.append(String.format("%02x", bytes[i]));
+            }
+        }
+        return text.toString();
+    }
+}
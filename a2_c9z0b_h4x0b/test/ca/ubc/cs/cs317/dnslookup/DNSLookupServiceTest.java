@@ -0,0 +1,176 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Tests of the iterative resolution of DNSLookupService against a local server that plays every
+ * server of a small hierarchy, answering each query based on the name asked.
+ */
+public class DNSLookupServiceTest {
+
+    private static final int A = 1, NS = 2, CNAME = 5;
+
+    private static DatagramSocket server;
+    private static final AtomicInteger queries = new AtomicInteger();
+    private static final Map<String, AtomicInteger> queriesByName = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        server = new DatagramSocket(0, loopback);
+        Thread thread = new Thread(DNSLookupServiceTest::serve, "test DNS server");
+        thread.setDaemon(true);
+        thread.start();
+        DNSLookupService.serverPort = server.getLocalPort();
+        DNSLookupService.setRootServers(Collections.singletonList(loopback));
+
+        cyclicGluelessDelegationFails();
+        gluelessDelegationIsResolved();
+        aliasWithExpiredTargetIsMiss();
+        System.out.println("DNSLookupServiceTest: all tests passed");
+    }
+
+    /** ns.a.loop is only served by ns.b.loop, which is only served by ns.a.loop. */
+    private static void cyclicGluelessDelegationFails() {
+        queries.set(0);
+        long start = System.currentTimeMillis();
+        Set<ResourceRecord> results = DNSLookupService.lookup(new DNSNode("www.cycle.test", RecordType.A));
+        check(results.isEmpty(), "a cyclic delegation has no results, got " + results);
+        check(queries.get() <= 10, "the cycle is detected after a few queries, sent " + queries.get());
+        check(System.currentTimeMillis() - start < 5000, "the lookup ends quickly");
+    }
+
+    /** The name servers of glueless.test have no glue, but are resolved through the root. */
+    private static void gluelessDelegationIsResolved() {
+        Set<ResourceRecord> results = DNSLookupService.lookup(new DNSNode("www.glueless.test", RecordType.A));
+        check(results.size() == 1 && results.iterator().next().getTextResult().equals("10.0.0.1"),
+                "the host is found through the glueless name servers, got " + results);
+    }
+
+    /** A cached CNAME record whose target expired still needs a query upstream: it is not a hit. */
+    private static void aliasWithExpiredTargetIsMiss() throws InterruptedException {
+        DNSNode node = new DNSNode("www.alias.test", RecordType.A);
+        Set<ResourceRecord> results = DNSLookupService.lookup(node);
+        check(results.size() == 1 && results.iterator().next().getTextResult().equals("10.0.0.2"),
+                "the alias is followed to its target, got " + results);
+        check(!DNSLookupService.wasCacheHit(), "the first lookup is a miss");
+        DNSLookupService.lookup(node);
+        check(DNSLookupService.wasCacheHit(), "the second lookup is a hit");
+
+        Thread.sleep(1500);
+        int targetQueries = queriesByName.get("target.alias.test").get();
+        results = DNSLookupService.lookup(node);
+        check(results.size() == 1, "the target is retrieved again, got " + results);
+        check(queriesByName.get("target.alias.test").get() > targetQueries, "the target is queried upstream");
+        check(!DNSLookupService.wasCacheHit(), "a lookup whose target is queried upstream is a miss");
+    }
+
+    private static void serve() {
+        byte[] buffer = new byte[512];
+        while (true) {
+            try {
+                DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                server.receive(request);
+                queries.incrementAndGet();
+                byte[] response = respond(Arrays.copyOf(request.getData(), request.getLength()));
+                server.send(new DatagramPacket(response, response.length, request.getSocketAddress()));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /** Builds the response to a query: referrals without glue, or authoritative addresses. */
+    private static byte[] respond(byte[] query) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int position = 12;
+        while (query[position] != 0) {
+            if (name.length() > 0) name.append('.');
+            name.append(new String(query, position + 1, query[position]));
+            position += query[position] + 1;
+        }
+        int questionEnd = position + 5;
+        String qname = name.toString().toLowerCase();
+        int count = queriesByName.computeIfAbsent(qname, key -> new AtomicInteger()).incrementAndGet();
+
+        List<Object[]> authority = new ArrayList<>();
+        List<Object[]> answers = new ArrayList<>();
+        switch (qname) {
+            case "www.cycle.test":
+                authority.add(new Object[]{"cycle.test", NS, "ns.a.loop"});
+                break;
+            case "ns.a.loop":
+                authority.add(new Object[]{"a.loop", NS, "ns.b.loop"});
+                break;
+            case "ns.b.loop":
+                authority.add(new Object[]{"b.loop", NS, "ns.a.loop"});
+                break;
+            case "www.glueless.test":
+                // The root refers the query to the name servers, which then answer it
+                if (count == 1) {
+                    authority.add(new Object[]{"glueless.test", NS, "ns1.ok.test"});
+                    authority.add(new Object[]{"glueless.test", NS, "ns2.ok.test"});
+                } else
+                    answers.add(new Object[]{qname, A, "10.0.0.1"});
+                break;
+            case "www.alias.test":
+                answers.add(new Object[]{qname, CNAME, "target.alias.test"});
+                break;
+            case "target.alias.test":
+                answers.add(new Object[]{qname, A, "10.0.0.2", 1});
+                break;
+            case "ns1.ok.test":
+            case "ns2.ok.test":
+                answers.add(new Object[]{qname, A, "127.0.0.1"});
+                break;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(query, 0, 2); // ID
+        out.writeShort(answers.isEmpty() ? 0x8000 : 0x8400); // response, authoritative for answers
+        out.writeShort(1);
+        out.writeShort(answers.size());
+        out.writeShort(authority.size());
+        out.writeShort(0);
+        out.write(query, 12, questionEnd - 12);
+        for (Object[] record : answers) writeRecord(out, record);
+        for (Object[] record : authority) writeRecord(out, record);
+        return bytes.toByteArray();
+    }
+
+    private static void writeRecord(DataOutputStream out, Object[] record) throws IOException {
+        writeName(out, (String) record[0]);
+        int type = (Integer) record[1];
+        out.writeShort(type);
+        out.writeShort(1); // IN
+        out.writeInt(record.length > 3 ? (Integer) record[3] : 300);
+        if (type == A) {
+            out.writeShort(4);
+            out.write(InetAddress.getByName((String) record[2]).getAddress());
+        } else {
+            ByteArrayOutputStream rdata = new ByteArrayOutputStream();
+            writeName(new DataOutputStream(rdata), (String) record[2]);
+            out.writeShort(rdata.size());
+            rdata.writeTo(out);
+        }
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        for (String label : name.split("\\.")) {
+            out.writeByte(label.length());
+            out.writeBytes(label);
+        }
+        out.writeByte(0);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
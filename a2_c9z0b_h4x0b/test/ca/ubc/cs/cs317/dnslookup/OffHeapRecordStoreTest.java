@@ -0,0 +1,129 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/** Tests of OffHeapRecordStore, in particular of records added while the store is compacted. */
+public class OffHeapRecordStoreTest {
+
+    private static final int LARGE_TEXT = 60000;
+    private static final long HOUR = 3600000;
+
+    public static void main(String[] args) throws InterruptedException {
+        addAndReplace();
+        addWhileCompactionRemovesExpiredBlock();
+        recordsSurviveEvacuation();
+        copiedBlocksHoldValidRecords();
+        System.out.println("OffHeapRecordStoreTest: all tests passed");
+    }
+
+    private static void addAndReplace() {
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        long now = System.currentTimeMillis();
+        store.add(new ResourceRecord("www.example.com", RecordType.A, new Date(now + HOUR), "192.0.2.1"));
+        store.add(new ResourceRecord("www.example.com", RecordType.A, new Date(now + HOUR), "192.0.2.2"));
+        store.add(new ResourceRecord("www.example.com", RecordType.A, new Date(now + 2 * HOUR), "192.0.2.1"));
+        Set<ResourceRecord> records = store.get(new DNSNode("www.example.com", RecordType.A));
+        check(records.size() == 2, "both addresses are stored, got " + records);
+        for (ResourceRecord record : records)
+            if (record.getTextResult().equals("192.0.2.1"))
+                check(record.getExpirationTime() == now + 2 * HOUR, "the record that expires last is kept");
+        check(store.size() == 1, "one query is stored, got " + store.size());
+        check(store.get(new DNSNode("www.example.com", RecordType.AAAA)).isEmpty(), "other types are not found");
+    }
+
+    /** Adding a record may compact the store, which may remove the expired block of the same query. */
+    private static void addWhileCompactionRemovesExpiredBlock() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        ResourceRecord expiring = new ResourceRecord("expiring.example", RecordType.TXT, new Date(now + 200), "soon");
+        // Find how many large records fit in the first slab after the expiring record
+        OffHeapRecordStore probe = new OffHeapRecordStore();
+        probe.add(expiring);
+        long slabSize = probe.getReservedBytes();
+        int fillers = 0;
+        while (true) {
+            probe.add(filler(fillers, now));
+            if (probe.getReservedBytes() > slabSize) break;
+            fillers++;
+        }
+
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        store.add(expiring);
+        for (int i = 0; i < fillers; i++)
+            store.add(filler(i, now));
+        check(store.getReservedBytes() == slabSize, "the first slab is not full yet");
+        Thread.sleep(300);
+
+        // The next large block does not fit: the store compacts and removes the expired block first
+        ResourceRecord replacement = new ResourceRecord("expiring.example", RecordType.TXT,
+                new Date(System.currentTimeMillis() + HOUR), text('r', LARGE_TEXT));
+        store.add(replacement);
+        Set<ResourceRecord> records = store.get(new DNSNode("expiring.example", RecordType.TXT));
+        check(records.size() == 1 && records.contains(replacement), "the new block is indexed");
+        check(store.size() == fillers + 1, "live blocks are counted correctly, got " + store.size());
+        for (int i = 0; i < fillers; i++)
+            check(store.get(filler(i, now).getNode()).size() == 1, "filler " + i + " is still stored");
+    }
+
+    /** Replacing records leaves dead blocks behind; evacuating slabs must keep every live record. */
+    private static void recordsSurviveEvacuation() {
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        long now = System.currentTimeMillis();
+        int queries = 100;
+        for (int round = 0; round < 6; round++)
+            for (int i = 0; i < queries; i++)
+                store.add(new ResourceRecord("host" + i + ".example", RecordType.TXT, new Date(now + HOUR + round),
+                        text((char) ('a' + i % 26), LARGE_TEXT)));
+        check(store.size() == queries, "one live block per query, got " + store.size());
+        for (int i = 0; i < queries; i++) {
+            Set<ResourceRecord> records = store.get(new DNSNode("host" + i + ".example", RecordType.TXT));
+            check(records.size() == 1, "one record for host" + i + ", got " + records.size());
+            ResourceRecord record = records.iterator().next();
+            check(record.getTextResult().charAt(0) == 'a' + i % 26, "the text of host" + i + " is intact");
+            check(record.getExpirationTime() == now + HOUR + 5, "the record that expires last is kept");
+        }
+        check(store.getReservedBytes() <= 3L * (16 << 20), "dead slabs are reused, reserved "
+                + store.getReservedBytes());
+    }
+
+    /** Blocks copied out of the store are decoded into the same valid records as the store holds. */
+    private static void copiedBlocksHoldValidRecords() throws InterruptedException {
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        long now = System.currentTimeMillis();
+        store.add(new ResourceRecord("www.example.com", RecordType.A, new Date(now + HOUR), "192.0.2.1"));
+        store.add(new ResourceRecord("www.example.com", RecordType.A, new Date(now + HOUR), "192.0.2.2"));
+        store.add(new ResourceRecord("www.example.com", RecordType.A, new Date(now + 2 * HOUR), "192.0.2.1"));
+        store.add(new ResourceRecord("mail.example.com", RecordType.MX, new Date(now + HOUR), "10 mx.example.com"));
+        store.add(new ResourceRecord("gone.example.com", RecordType.A, new Date(now + 100), "192.0.2.3"));
+        Thread.sleep(200);
+
+        List<ByteBuffer> blocks = store.copyBlocks();
+        List<ResourceRecord> copied = new ArrayList<>();
+        OffHeapRecordStore.forEachRecord(blocks, (node, record) -> copied.add(record));
+        List<ResourceRecord> stored = new ArrayList<>();
+        store.forEachRecord((node, record) -> stored.add(record));
+        check(copied.size() == 3, "the valid records are copied, got " + copied);
+        check(new HashSet<>(copied).equals(new HashSet<>(stored)), "the copy matches the store");
+
+        // The copy does not change when the store does
+        store.add(new ResourceRecord("new.example.com", RecordType.A, new Date(now + HOUR), "192.0.2.4"));
+        copied.clear();
+        OffHeapRecordStore.forEachRecord(blocks, (node, record) -> copied.add(record));
+        check(copied.size() == 3, "records added later are not in the copy, got " + copied);
+    }
+
+    private static ResourceRecord filler(int index, long now) {
+        return new ResourceRecord(String.format("filler-%04d.example", index), RecordType.TXT, new Date(now + HOUR),
+                text('f', LARGE_TEXT));
+    }
+
+    private static String text(char c, int length) {
+        char[] text = new char[length];
+        Arrays.fill(text, c);
+        return new String(text);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
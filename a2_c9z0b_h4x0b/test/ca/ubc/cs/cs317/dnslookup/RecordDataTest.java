@@ -0,0 +1,126 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/** Tests of the decoding of record data, in particular of malformed domain names. */
+public class RecordDataTest {
+
+    public static void main(String[] args) {
+        compressedNamesExpanded();
+        equalityOnRecordData();
+        malformedNamesRejected();
+        textEncodedAsRecordData();
+        recordsComparedAcrossRepresentations();
+        System.out.println("RecordDataTest: all tests passed");
+    }
+
+    /** Packet with "example.com" at position 0, followed by the given bytes. */
+    private static byte[] packet(int... bytes) {
+        byte[] name = {7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0};
+        byte[] packet = new byte[name.length + bytes.length];
+        System.arraycopy(name, 0, packet, 0, name.length);
+        for (int i = 0; i < bytes.length; i++)
+            packet[name.length + i] = (byte) bytes[i];
+        return packet;
+    }
+
+    private static void compressedNamesExpanded() {
+        // MX 10 mail.example.com, with example.com compressed
+        byte[] packet = packet(0, 10, 4, 'm', 'a', 'i', 'l', 0xC0, 0);
+        RecordData data = new RecordData(RecordType.MX, packet, 13, packet.length - 13);
+        check(data.getPreference() == 10, "the preference is decoded");
+        check(data.getExchange().equals("mail.example.com"), "the exchange is expanded, got " + data.getExchange());
+        check(data.getLength() == 2 + 18, "the copied rdata holds the expanded name, got " + data.getLength());
+        check(data.toString().equals("10 mail.example.com"), "text representation, got " + data);
+    }
+
+    private static void equalityOnRecordData() {
+        byte[] compressed = packet(4, 'm', 'a', 'i', 'l', 0xC0, 0);
+        byte[] uncompressed = packet(4, 'm', 'a', 'i', 'l', 7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0);
+        RecordData first = new RecordData(RecordType.CNAME, compressed, 13, compressed.length - 13);
+        RecordData second = new RecordData(RecordType.CNAME, uncompressed, 13, uncompressed.length - 13);
+        check(first.equals(second) && first.hashCode() == second.hashCode(), "compression does not matter");
+        check(!first.equals(new RecordData(RecordType.NS, compressed, 13, compressed.length - 13)),
+                "the type matters");
+        ResourceRecord record = new ResourceRecord("www.example.com", RecordType.CNAME, 300, first);
+        check(record.equals(new ResourceRecord("www.example.com", RecordType.CNAME, 300, second)),
+                "records with equal rdata are equal");
+        check(record.equals(new ResourceRecord("www.example.com", RecordType.CNAME, 300, "mail.example.com")),
+                "a record with rdata equals one with the same text");
+    }
+
+    private static void malformedNamesRejected() {
+        // Pointer to itself, pointer forward, pointer past the end, truncated label, truncated pointer
+        rejected(13, packet(0xC0, 13), RecordType.NS, "a pointer loop");
+        rejected(13, packet(0xC0, 15, 0), RecordType.NS, "a forward pointer");
+        rejected(13, packet(4, 'm', 'a', 0xC0), RecordType.NS, "a label past the end");
+        rejected(13, packet(0xC0), RecordType.NS, "a truncated pointer");
+        rejected(13, packet(0x80, 0), RecordType.NS, "an unsupported label type");
+        rejected(13, packet(0, 10), RecordType.MX, "a name past the rdata");
+        rejected(13, packet(3, 'a', 'b'), RecordType.TXT, "a string past the rdata");
+        byte[] longName = new byte[300];
+        for (int i = 0; i + 2 < longName.length; i += 2) {
+            longName[i] = 1;
+            longName[i + 1] = 'a';
+        }
+        rejected(0, longName, RecordType.NS, "a name longer than 255 bytes");
+        try {
+            RecordData.readName(packet(0xC0, 13), 13);
+            check(false, "readName rejects a pointer loop");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /** The textual representation of each type is encoded back into the same bytes. */
+    private static void textEncodedAsRecordData() {
+        byte[] mx = packet(0, 10, 4, 'm', 'a', 'i', 'l', 0xC0, 0);
+        RecordData view = new RecordData(RecordType.MX, mx, 13, mx.length - 13);
+        check(view.equals(RecordData.fromText(RecordType.MX, "10 mail.example.com")), "MX text is encoded");
+        check(view.equals(RecordData.fromText(RecordType.MX, "10 mail.example.com.")), "a trailing dot is ignored");
+
+        byte[] txt = packet(5, 'a', ' ', '"', 'b', '\\', 0);
+        view = new RecordData(RecordType.TXT, txt, 13, txt.length - 13);
+        check(view.equals(RecordData.fromText(RecordType.TXT, view.toString())), "TXT text is encoded, got " + view);
+
+        String[][] texts = {{"NS", "ns1.example.com"}, {"CNAME", "www.example.com"}, {"PTR", ""},
+                {"SOA", "ns1.example.com hostmaster.example.com 2024010101 7200 3600 1209600 300"},
+                {"SRV", "10 60 5060 sip.example.com"}, {"TXT", "\"v=spf1 -all\" \"\""}, {"OTHER", "\\# 3 0a0b0c"}};
+        for (String[] text : texts) {
+            RecordData data = RecordData.fromText(RecordType.valueOf(text[0]), text[1]);
+            check(data != null && data.toString().equals(text[1]),
+                    text[0] + " " + text[1] + " round trips, got " + data);
+        }
+
+        String[][] invalid = {{"NS", "a..b"}, {"NS", "a b"}, {"MX", "70000 mail.example.com"}, {"MX", "ten mx"},
+                {"SOA", "ns1 hostmaster 1 2 3"}, {"SRV", "1 2 3"}, {"TXT", "unquoted"}, {"TXT", "\"open"},
+                {"OTHER", "\\# 2 0a"}, {"A", "192.0.2.1"}};
+        for (String[] text : invalid)
+            check(RecordData.fromText(RecordType.valueOf(text[0]), text[1]) == null,
+                    text[0] + " " + text[1] + " is rejected");
+    }
+
+    /** A record created from a view equals the same record created from text, with the same hash code. */
+    private static void recordsComparedAcrossRepresentations() {
+        byte[] mx = packet(0, 10, 4, 'm', 'a', 'i', 'l', 0xC0, 0);
+        ResourceRecord fromServer = new ResourceRecord("example.com", RecordType.MX, 300,
+                new RecordData(RecordType.MX, mx, 13, mx.length - 13));
+        ResourceRecord fromFile = new ResourceRecord("example.com", RecordType.MX, 300, "10 mail.example.com");
+        check(fromServer.equals(fromFile) && fromFile.equals(fromServer), "both representations are equal");
+        check(fromServer.hashCode() == fromFile.hashCode(), "equal records have the same hash code");
+        check(!fromServer.equals(new ResourceRecord("example.com", RecordType.MX, 300, "20 mail.example.com")),
+                "different text is not equal");
+        check(!fromServer.equals(new ResourceRecord("example.com", RecordType.MX, 300, "not an MX")),
+                "invalid text is not equal");
+    }
+
+    private static void rejected(int offset, byte[] packet, RecordType type, String description) {
+        try {
+            new RecordData(type, packet, offset, packet.length - offset);
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError(description + " is rejected");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
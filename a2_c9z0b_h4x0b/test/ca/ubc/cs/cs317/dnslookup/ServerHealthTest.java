@@ -0,0 +1,60 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/** Tests of the choice of servers made by ServerHealth. */
+public class ServerHealthTest {
+
+    public static void main(String[] args) throws UnknownHostException {
+        fastestServerFirst();
+        heldDownServersSkipped();
+        allServersHeldDown();
+        System.out.println("ServerHealthTest: all tests passed");
+    }
+
+    private static void fastestServerFirst() throws UnknownHostException {
+        ServerHealth health = new ServerHealth();
+        InetAddress slow = address(1), fast = address(2);
+        health.recordSuccess(slow, "example.com", 300);
+        health.recordSuccess(fast, "example.com", 20);
+        check(health.select(Arrays.asList(slow, fast), "example.com").equals(Arrays.asList(fast, slow)),
+                "the server with the lowest round-trip time comes first");
+    }
+
+    private static void heldDownServersSkipped() throws UnknownHostException {
+        ServerHealth health = new ServerHealth();
+        InetAddress down = address(1), lame = address(2), up = address(3);
+        health.recordFailure(down, "example.com", ServerHealth.Failure.TIMEOUT);
+        health.recordFailure(lame, "example.com", ServerHealth.Failure.LAME);
+        List<InetAddress> servers = Arrays.asList(down, lame, up);
+        check(health.select(servers, "example.com").equals(Collections.singletonList(up)),
+                "held-down servers are skipped");
+        check(new HashSet<>(health.select(servers, "example.org")).equals(new HashSet<>(Arrays.asList(lame, up))),
+                "a lame server is only held down for its zone");
+    }
+
+    /** With every server held down, the one available again first is still queried. */
+    private static void allServersHeldDown() throws UnknownHostException {
+        ServerHealth health = new ServerHealth();
+        InetAddress often = address(1), once = address(2);
+        health.recordFailure(often, "example.com", ServerHealth.Failure.TIMEOUT);
+        health.recordFailure(often, "example.com", ServerHealth.Failure.TIMEOUT);
+        health.recordFailure(once, "example.com", ServerHealth.Failure.SERVFAIL);
+        check(health.select(Arrays.asList(often, once), "example.com").equals(Collections.singletonList(once)),
+                "the server whose hold-down ends first is returned");
+        check(health.select(Collections.emptyList(), "example.com").isEmpty(), "no candidates, no servers");
+    }
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{(byte) 192, 0, 2, (byte) last});
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
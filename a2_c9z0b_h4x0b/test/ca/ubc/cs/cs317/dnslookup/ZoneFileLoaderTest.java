@@ -0,0 +1,41 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/** Tests of the strict parsing of address literals used by ZoneFileLoader and ReverseLookup. */
+public class ZoneFileLoaderTest {
+
+    public static void main(String[] args) throws Exception {
+        validLiterals();
+        invalidLiterals();
+        System.out.println("ZoneFileLoaderTest: all tests passed");
+    }
+
+    /** Valid literals are parsed into the same bytes as InetAddress parses them. */
+    private static void validLiterals() throws Exception {
+        String[] literals = {"192.0.2.1", "0.0.0.0", "255.255.255.255", "::", "::1", "1::", "2001:db8::1",
+                "2001:DB8:0:0:8:800:200C:417A", "fe80::1:2:3:4", "1:2:3:4:5:6:7::", "::1:2:3:4:5:6:7",
+                "::ffff:192.0.2.1", "64:ff9b::192.0.2.33", "1:2:3:4:5:6:192.0.2.1"};
+        for (String literal : literals) {
+            byte[] expected = InetAddress.getByName(literal).getAddress();
+            byte[] parsed = ZoneFileLoader.parseAddressLiteral(literal);
+            if (expected.length == 4 && parsed != null && parsed.length == 16) // IPv4-mapped
+                parsed = Arrays.copyOfRange(parsed, 12, 16);
+            check(Arrays.equals(expected, parsed), literal + " is parsed as " + Arrays.toString(parsed));
+        }
+    }
+
+    /** Host names, partial addresses and the short forms of inet_aton are not literals. */
+    private static void invalidLiterals() {
+        String[] tokens = {"", "1234", "3600", "1.2.3", "1.2.3.4.", "1.2.3.4.5", "256.1.1.1", "1..2.3", "localhost",
+                "host:1", "http://x", ":1", "1:", "1:::2", "::1::", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7::8",
+                "12345::", "g::1", "::1.2.3", "1:2:3:4:5:6:7:1.2.3.4", "1.2.3.4::", "[::1]", "fe80::1%lo0"};
+        for (String token : tokens)
+            check(ZoneFileLoader.parseAddressLiteral(token) == null, token + " is not an address literal");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}